@@ -0,0 +1,20 @@
+package cn.zfs.blelib.callback;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import cn.zfs.blelib.core.ConnectionConfig;
+
+/**
+ * 描述: 请求队列的背压回调，在设置了队列容量时有效，见{@link ConnectionConfig#setRequestQueueCapacity(int)}。
+ * 回调在入队或出队的线程上、释放连接的锁之后执行，不要在其中阻塞
+ */
+public interface BackpressureListener {
+
+    /**
+     * 拥塞状态变化
+     * @param congested true: 队列已满，生产方应暂停；false: 队列已降到容量的一半，可以继续
+     * @param depth 当前排队的请求数
+     */
+    void onBackpressureChanged(@NonNull BluetoothDevice device, boolean congested, int depth);
+}
@@ -0,0 +1,19 @@
+package cn.zfs.blelib.callback;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import cn.zfs.blelib.core.Device;
+
+/**
+ * 描述: 批量扫描回调。实现此接口后，扫描结果按帧合并后一次性回调{@link #onScanResults(List)}，
+ * 不再回调{@link #onScanResult(Device)}
+ */
+public interface BatchScanListener extends ScanListener {
+    /**
+     * 一帧内的扫描结果，同一地址的设备只保留最新的一条
+     * @param devices 设备列表
+     */
+    void onScanResults(@NonNull List<Device> devices);
+}
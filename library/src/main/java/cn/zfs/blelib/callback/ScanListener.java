@@ -25,8 +25,9 @@ public interface ScanListener {
     void onScanStop();
 
     /**
-     * 扫描结果
-     * @param device 设备
+     * 扫描结果。结果按{@link cn.zfs.blelib.core.BleConfig#setScanResultFrameMillis(int)}设置的帧间隔合并后回调，
+     * 如需一次拿到整帧结果，实现{@link BatchScanListener}
+     * @param device 设备在回调时的快照，之后的扫描不会修改它
      */
     void onScanResult(@NonNull Device device);
 
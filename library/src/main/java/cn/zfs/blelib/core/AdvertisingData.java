@@ -0,0 +1,359 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * 描述: 广播数据(AD结构)解析。一次遍历建立各字段的索引，字段内容以偏移和长度的形式访问原始数组，不做拷贝。
+ * 实例可重复使用，每次{@link #parse(byte[])}会覆盖上一次的索引
+ */
+public class AdvertisingData {
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_SERVICE_UUIDS_16_BIT_PARTIAL = 0x02;
+    public static final int TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03;
+    public static final int TYPE_SERVICE_UUIDS_32_BIT_PARTIAL = 0x04;
+    public static final int TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05;
+    public static final int TYPE_SERVICE_UUIDS_128_BIT_PARTIAL = 0x06;
+    public static final int TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07;
+    public static final int TYPE_LOCAL_NAME_SHORT = 0x08;
+    public static final int TYPE_LOCAL_NAME_COMPLETE = 0x09;
+    public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    public static final int TYPE_SERVICE_DATA_16_BIT = 0x16;
+    public static final int TYPE_SERVICE_DATA_32_BIT = 0x20;
+    public static final int TYPE_SERVICE_DATA_128_BIT = 0x21;
+    public static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    //蓝牙基础UUID：00000000-0000-1000-8000-00805F9B34FB
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] data;
+    private int count;
+    private int[] types = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+
+    /**
+     * 解析广播数据，建立字段索引
+     * @param data 广播原始数据，为null时不包含任何字段
+     */
+    public AdvertisingData parse(byte[] data) {
+        this.data = data;
+        count = 0;
+        if (data == null) {
+            return this;
+        }
+        int pos = 0;
+        while (pos < data.length) {
+            int len = data[pos] & 0xFF;
+            //长度为0表示有效数据结束，长度越界的字段丢弃
+            if (len == 0 || pos + 1 + len > data.length) {
+                break;
+            }
+            if (count == types.length) {
+                grow();
+            }
+            types[count] = data[pos + 1] & 0xFF;
+            offsets[count] = pos + 2;
+            lengths[count] = len - 1;
+            count++;
+            pos += len + 1;
+        }
+        return this;
+    }
+
+    private void grow() {
+        int size = types.length << 1;
+        int[] newTypes = new int[size];
+        int[] newOffsets = new int[size];
+        int[] newLengths = new int[size];
+        System.arraycopy(types, 0, newTypes, 0, count);
+        System.arraycopy(offsets, 0, newOffsets, 0, count);
+        System.arraycopy(lengths, 0, newLengths, 0, count);
+        types = newTypes;
+        offsets = newOffsets;
+        lengths = newLengths;
+    }
+
+    /**
+     * 原始广播数据
+     */
+    public byte[] getBytes() {
+        return data;
+    }
+
+    /**
+     * 字段数量
+     */
+    public int getFieldCount() {
+        return count;
+    }
+
+    /**
+     * 字段类型
+     * @param index 字段索引
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * 字段内容在原始数组中的起始位置，不含长度和类型字节
+     * @param index 字段索引
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * 字段内容长度，不含长度和类型字节
+     * @param index 字段索引
+     */
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * 查找指定类型的第一个字段
+     * @return 字段索引，不存在返回-1
+     */
+    public int indexOf(int type) {
+        return indexOf(type, 0);
+    }
+
+    /**
+     * 从指定位置开始查找指定类型的字段
+     * @param fromIndex 开始查找的字段索引
+     * @return 字段索引，不存在返回-1
+     */
+    public int indexOf(int type, int fromIndex) {
+        for (int i = fromIndex; i < count; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 设备名称字段，优先完整名称
+     * @return 字段索引，不存在返回-1
+     */
+    public int indexOfName() {
+        int index = indexOf(TYPE_LOCAL_NAME_COMPLETE);
+        return index == -1 ? indexOf(TYPE_LOCAL_NAME_SHORT) : index;
+    }
+
+    /**
+     * 设备名称，只在调用时生成字符串
+     * @return 不存在返回null
+     */
+    public String getName() {
+        int index = indexOfName();
+        return index == -1 ? null : new String(data, offsets[index], lengths[index], UTF_8);
+    }
+
+    /**
+     * 发射功率
+     * @return 不存在返回{@link Integer#MIN_VALUE}
+     */
+    public int getTxPowerLevel() {
+        int index = indexOf(TYPE_TX_POWER_LEVEL);
+        return index == -1 || lengths[index] < 1 ? Integer.MIN_VALUE : data[offsets[index]];
+    }
+
+    /**
+     * 字段中每个UUID的字节数
+     * @param index 字段索引
+     * @return 2、4或16，不是UUID列表或服务数据字段返回0
+     */
+    public int getUuidLength(int index) {
+        switch(types[index]) {
+            case TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+            case TYPE_SERVICE_DATA_16_BIT:
+                return 2;
+            case TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+            case TYPE_SERVICE_DATA_32_BIT:
+                return 4;
+            case TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+            case TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+            case TYPE_SERVICE_DATA_128_BIT:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 是否包含指定的服务UUID，在原始数组上比较，不生成UUID对象
+     */
+    public boolean hasServiceUuid(@NonNull UUID uuid) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] >= TYPE_SERVICE_UUIDS_16_BIT_PARTIAL && types[i] <= TYPE_SERVICE_UUIDS_128_BIT_COMPLETE) {
+                int uuidLen = getUuidLength(i);
+                for (int offset = offsets[i]; offset + uuidLen <= offsets[i] + lengths[i]; offset += uuidLen) {
+                    if (uuidEquals(offset, uuidLen, uuid)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 服务UUID总数
+     */
+    public int getServiceUuidCount() {
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            if (types[i] >= TYPE_SERVICE_UUIDS_16_BIT_PARTIAL && types[i] <= TYPE_SERVICE_UUIDS_128_BIT_COMPLETE) {
+                total += lengths[i] / getUuidLength(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 获取服务UUID，调用时才生成UUID对象
+     * @param position 在所有服务UUID中的位置
+     * @return 不存在返回null
+     */
+    public UUID getServiceUuid(int position) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] >= TYPE_SERVICE_UUIDS_16_BIT_PARTIAL && types[i] <= TYPE_SERVICE_UUIDS_128_BIT_COMPLETE) {
+                int uuidLen = getUuidLength(i);
+                int size = lengths[i] / uuidLen;
+                if (position < size) {
+                    return toUuid(offsets[i] + position * uuidLen, uuidLen);
+                }
+                position -= size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找指定厂商的厂商自定义数据字段
+     * @param manufacturerId 厂商ID
+     * @return 字段索引，不存在返回-1
+     */
+    public int indexOfManufacturerData(int manufacturerId) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == TYPE_MANUFACTURER_SPECIFIC_DATA && lengths[i] >= 2 && getManufacturerId(i) == manufacturerId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 厂商ID，小端
+     * @param index 厂商自定义数据字段索引
+     * @return 字段不足2字节时返回-1
+     */
+    public int getManufacturerId(int index) {
+        if (lengths[index] < 2) {
+            return -1;
+        }
+        int offset = offsets[index];
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * 厂商自定义数据在原始数组中的起始位置，不含厂商ID
+     * @param index 厂商自定义数据字段索引
+     */
+    public int getManufacturerDataOffset(int index) {
+        return offsets[index] + 2;
+    }
+
+    /**
+     * 厂商自定义数据长度，不含厂商ID
+     * @param index 厂商自定义数据字段索引
+     * @return 字段不足厂商ID长度时返回0
+     */
+    public int getManufacturerDataLength(int index) {
+        return Math.max(0, lengths[index] - 2);
+    }
+
+    /**
+     * 查找指定服务的服务数据字段，在原始数组上比较UUID
+     * @return 字段索引，不存在返回-1
+     */
+    public int indexOfServiceData(@NonNull UUID uuid) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == TYPE_SERVICE_DATA_16_BIT || types[i] == TYPE_SERVICE_DATA_32_BIT || types[i] == TYPE_SERVICE_DATA_128_BIT) {
+                int uuidLen = getUuidLength(i);
+                if (lengths[i] >= uuidLen && uuidEquals(offsets[i], uuidLen, uuid)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 服务数据字段的服务UUID，调用时才生成UUID对象
+     * @param index 服务数据字段索引
+     */
+    public UUID getServiceDataUuid(int index) {
+        return toUuid(offsets[index], getUuidLength(index));
+    }
+
+    /**
+     * 服务数据在原始数组中的起始位置，不含服务UUID
+     * @param index 服务数据字段索引
+     */
+    public int getServiceDataOffset(int index) {
+        return offsets[index] + getUuidLength(index);
+    }
+
+    /**
+     * 服务数据长度，不含服务UUID
+     * @param index 服务数据字段索引
+     * @return 字段不足UUID长度时返回0
+     */
+    public int getServiceDataLength(int index) {
+        return Math.max(0, lengths[index] - getUuidLength(index));
+    }
+
+    private boolean uuidEquals(int offset, int uuidLen, UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (uuidLen == 16) {
+            return readLongLE(offset) == lsb && readLongLE(offset + 8) == msb;
+        }
+        //16位和32位UUID需基于基础UUID
+        if (lsb != BASE_UUID_LSB || (msb & 0xFFFFFFFFL) != BASE_UUID_MSB) {
+            return false;
+        }
+        long value = uuidLen == 2 ? readShortLE(offset) : readIntLE(offset);
+        return (msb >>> 32) == value;
+    }
+
+    private UUID toUuid(int offset, int uuidLen) {
+        if (uuidLen == 16) {
+            return new UUID(readLongLE(offset + 8), readLongLE(offset));
+        }
+        long value = uuidLen == 2 ? readShortLE(offset) : readIntLE(offset);
+        return new UUID((value << 32) | BASE_UUID_MSB, BASE_UUID_LSB);
+    }
+
+    private long readShortLE(int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    private long readIntLE(int offset) {
+        return readShortLE(offset) | (readShortLE(offset + 2) << 16);
+    }
+
+    private long readLongLE(int offset) {
+        return readIntLE(offset) | (readIntLE(offset + 4) << 32);
+    }
+}
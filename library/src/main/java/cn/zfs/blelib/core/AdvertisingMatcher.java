@@ -0,0 +1,261 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 广播内容分类匹配器。注册若干字节模式（广播字段类型 + 字段开头的字节，可带掩码）及对应的解码器，
+ * 按字段类型和开头字节组织成前缀树，一次遍历广播字段即可找到匹配的模式并解码成指定类型的结果。
+ * 用于在{@link IScanHandler}中识别iBeacon、Eddystone及各厂商的广播，代替逐个模式比较字节数组
+ * <br>匹配线程安全，可与注册同时进行；注册时复制插入路径上的节点，应尽量在扫描开始前完成注册
+ */
+public class AdvertisingMatcher<T> {
+    public interface Decoder<T> {
+        /**
+         * 解码匹配到的字段
+         * @param data 广播原始数据
+         * @param offset 字段内容在原始数组中的起始位置，不含长度和类型字节
+         * @param length 字段内容长度
+         * @return 解码结果，返回null时表示不匹配，继续尝试其他模式
+         */
+        T decode(@NonNull byte[] data, int offset, int length);
+    }
+
+    private static class Pattern {
+        final Decoder<?> decoder;
+        Pattern next;
+
+        Pattern(Decoder<?> decoder) {
+            this.decoder = decoder;
+        }
+    }
+
+    //掩码不为0xFF的边，匹配时按掩码比较
+    private static class MaskedEdge {
+        final int mask;
+        final int value;
+        final Node node;
+        MaskedEdge next;
+
+        MaskedEdge(int mask, int value, Node node) {
+            this.mask = mask;
+            this.value = value;
+            this.node = node;
+        }
+    }
+
+    private static class Node {
+        Node[] children;//完全匹配的下一个字节
+        MaskedEdge maskedEdges;
+        Pattern patterns;//在此结束的模式，按注册顺序
+    }
+
+    //按字段类型索引的根节点，只在注册时整体替换
+    private volatile Node[] roots = new Node[256];
+    private final ThreadLocal<AdvertisingData> advertisingData = new ThreadLocal<AdvertisingData>() {
+        @Override
+        protected AdvertisingData initialValue() {
+            return new AdvertisingData();
+        }
+    };
+
+    private AdvertisingMatcher() {
+    }
+
+    public static <T> AdvertisingMatcher<T> newInstance() {
+        return new AdvertisingMatcher<>();
+    }
+
+    /**
+     * 注册模式
+     * @param adType 广播字段类型，如{@link AdvertisingData#TYPE_MANUFACTURER_SPECIFIC_DATA}
+     * @param prefix 字段内容开头的字节
+     * @param mask 与prefix等长的掩码，为null时完全匹配
+     * @param decoder 解码器
+     */
+    public synchronized AdvertisingMatcher<T> addPattern(int adType, @NonNull byte[] prefix, byte[] mask, @NonNull Decoder<? extends T> decoder) {
+        if (adType < 0 || adType > 0xFF) {
+            throw new IllegalArgumentException("invalid AD type: " + adType);
+        }
+        if (mask != null && mask.length != prefix.length) {
+            throw new IllegalArgumentException("mask length must equal prefix length");
+        }
+        //只复制插入路径上的节点后整体替换，正在匹配的线程不受影响
+        Node[] newRoots = roots.clone();
+        Node node = shallowCopy(newRoots[adType]);
+        newRoots[adType] = node;
+        for (int i = 0; i < prefix.length; i++) {
+            int m = mask == null ? 0xFF : mask[i] & 0xFF;
+            int v = prefix[i] & m;
+            node = m == 0xFF ? exactChild(node, v) : maskedChild(node, m, v);
+        }
+        Pattern pattern = new Pattern(decoder);
+        if (node.patterns == null) {
+            node.patterns = pattern;
+        } else {
+            Pattern p = node.patterns;
+            while (p.next != null) {
+                p = p.next;
+            }
+            p.next = pattern;
+        }
+        roots = newRoots;
+        return this;
+    }
+
+    /**
+     * 注册厂商自定义数据模式
+     * @param manufacturerId 厂商ID
+     * @param prefix 厂商数据开头的字节，不含厂商ID
+     * @param mask 与prefix等长的掩码，为null时完全匹配
+     */
+    public AdvertisingMatcher<T> addManufacturerPattern(int manufacturerId, @NonNull byte[] prefix, byte[] mask, @NonNull Decoder<? extends T> decoder) {
+        return addPattern(AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA, withLeUuid16(manufacturerId, prefix),
+                mask == null ? null : withLeUuid16(0xFFFF, mask), decoder);
+    }
+
+    /**
+     * 注册16位UUID服务数据模式
+     * @param uuid16 16位服务UUID，如Eddystone的0xFEAA
+     * @param prefix 服务数据开头的字节，不含UUID
+     * @param mask 与prefix等长的掩码，为null时完全匹配
+     */
+    public AdvertisingMatcher<T> addServiceDataPattern(int uuid16, @NonNull byte[] prefix, byte[] mask, @NonNull Decoder<? extends T> decoder) {
+        return addPattern(AdvertisingData.TYPE_SERVICE_DATA_16_BIT, withLeUuid16(uuid16, prefix),
+                mask == null ? null : withLeUuid16(0xFFFF, mask), decoder);
+    }
+
+    /**
+     * 解析并匹配广播内容
+     * @return 第一个匹配的解码结果，没有匹配返回null
+     */
+    public T match(byte[] scanRecord) {
+        return match(advertisingData.get().parse(scanRecord));
+    }
+
+    /**
+     * 匹配已解析的广播内容。按字段顺序匹配，同一字段优先匹配更长的前缀，前缀相同时按注册顺序
+     * @return 第一个匹配的解码结果，没有匹配返回null
+     */
+    public T match(@NonNull AdvertisingData advData) {
+        byte[] data = advData.getBytes();
+        if (data == null) {
+            return null;
+        }
+        Node[] roots = this.roots;
+        for (int i = 0; i < advData.getFieldCount(); i++) {
+            Node root = roots[advData.getType(i)];
+            if (root != null) {
+                int offset = advData.getOffset(i);
+                int length = advData.getLength(i);
+                T result = matchNode(root, data, offset, offset + length, offset, length);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T matchNode(Node node, byte[] data, int pos, int end, int offset, int length) {
+        if (pos < end) {
+            int b = data[pos] & 0xFF;
+            if (node.children != null && node.children[b] != null) {
+                T result = matchNode(node.children[b], data, pos + 1, end, offset, length);
+                if (result != null) {
+                    return result;
+                }
+            }
+            for (MaskedEdge edge = node.maskedEdges; edge != null; edge = edge.next) {
+                if ((b & edge.mask) == edge.value) {
+                    T result = matchNode(edge.node, data, pos + 1, end, offset, length);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+        }
+        for (Pattern p = node.patterns; p != null; p = p.next) {
+            T result = (T) p.decoder.decode(data, offset, length);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static Node exactChild(Node node, int value) {
+        if (node.children == null) {
+            node.children = new Node[256];
+        }
+        Node child = shallowCopy(node.children[value]);
+        node.children[value] = child;
+        return child;
+    }
+
+    //node已是复制出的节点，其中的边在shallowCopy时已重建，可直接替换
+    private static Node maskedChild(Node node, int mask, int value) {
+        MaskedEdge last = null;
+        for (MaskedEdge edge = node.maskedEdges; edge != null; edge = edge.next) {
+            if (edge.mask == mask && edge.value == value) {
+                MaskedEdge copy = new MaskedEdge(mask, value, shallowCopy(edge.node));
+                copy.next = edge.next;
+                if (last == null) {
+                    node.maskedEdges = copy;
+                } else {
+                    last.next = copy;
+                }
+                return copy.node;
+            }
+            last = edge;
+        }
+        MaskedEdge edge = new MaskedEdge(mask, value, new Node());
+        if (last == null) {
+            node.maskedEdges = edge;
+        } else {
+            last.next = edge;
+        }
+        return edge.node;
+    }
+
+    //复制节点本身，子节点共用
+    private static Node shallowCopy(Node node) {
+        Node copy = new Node();
+        if (node == null) {
+            return copy;
+        }
+        if (node.children != null) {
+            copy.children = node.children.clone();
+        }
+        MaskedEdge last = null;
+        for (MaskedEdge edge = node.maskedEdges; edge != null; edge = edge.next) {
+            MaskedEdge e = new MaskedEdge(edge.mask, edge.value, edge.node);
+            if (last == null) {
+                copy.maskedEdges = e;
+            } else {
+                last.next = e;
+            }
+            last = e;
+        }
+        Pattern lastPattern = null;
+        for (Pattern p = node.patterns; p != null; p = p.next) {
+            Pattern pattern = new Pattern(p.decoder);
+            if (lastPattern == null) {
+                copy.patterns = pattern;
+            } else {
+                lastPattern.next = pattern;
+            }
+            lastPattern = pattern;
+        }
+        return copy;
+    }
+
+    //16位的ID或UUID按小端放在前面
+    private static byte[] withLeUuid16(int value, byte[] bytes) {
+        byte[] result = new byte[bytes.length + 2];
+        result[0] = (byte) value;
+        result[1] = (byte) (value >> 8);
+        System.arraycopy(bytes, 0, result, 2, bytes.length);
+        return result;
+    }
+}
@@ -9,18 +9,23 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
+import cn.zfs.blelib.callback.BackpressureListener;
 import cn.zfs.blelib.util.BleUtils;
 
 /**
@@ -30,56 +35,114 @@ import cn.zfs.blelib.util.BleUtils;
  */
 public abstract class BaseConnection extends BluetoothGattCallback implements IConnection {    
     private static final int MSG_REQUEST_TIMEOUT = 0;
+    static final int DEFAULT_MTU = 23;
+    //ATT写请求头占3字节，签名写入另有12字节签名
+    private static final int ATT_WRITE_HEADER_SIZE = 3;
+    private static final int ATT_SIGNATURE_SIZE = 12;
+    //蓝牙回调线程和节拍线程只用于回调，在这些线程上入队不能阻塞
+    private static final ThreadLocal<Boolean> callbackThread = new ThreadLocal<>();
     protected BluetoothDevice bluetoothDevice;
     protected BluetoothGatt bluetoothGatt;
-    protected List<Request> requestQueue = new ArrayList<>();
+    PriorityRequestQueue requestQueue = new PriorityRequestQueue();
     protected Request currentRequest;
     private BluetoothGattCharacteristic pendingCharacteristic;
     protected BluetoothAdapter bluetoothAdapter;
     protected boolean isReleased;
     private TimeoutHandler handler;
+    private RoundTripEstimator roundTripEstimator = new RoundTripEstimator();
+    private WritePacer writePacer;
+    private volatile int mtu = DEFAULT_MTU;
+    private BackpressureListener backpressureListener;
+    private boolean congested;//队列是否已满，降到容量一半时解除
+    private long rejectedCount;
+    private long droppedCount;
+    private long blockedCount;
     protected ConnectionConfig config;
+    //持有锁时产生的回调，释放锁后在同一线程执行，用户代码不在锁内运行，也就不会卡住等待空位的入队线程
+    private final ThreadLocal<ArrayList<Runnable>> deferredCallbacks = new ThreadLocal<ArrayList<Runnable>>() {
+        @Override
+        protected ArrayList<Runnable> initialValue() {
+            return new ArrayList<>();
+        }
+    };
 
     BaseConnection(BluetoothDevice bluetoothDevice, ConnectionConfig config) {
         this.bluetoothDevice = bluetoothDevice;
         this.config = config;
         handler = new TimeoutHandler(this);
+        writePacer = new WritePacer(bluetoothDevice.getAddress());
     }
     
     public void clearRequestQueue() {        
+        List<Request> requests;
         synchronized (this) {
-            requestQueue.clear();
+            requests = requestQueue.drain();
+            if (currentRequest != null) {
+                requests.add(currentRequest);
+            }
             currentRequest = null;
+            onQueueSizeChanged();
         }
+        flushDeferredCallbacks();
+        cancelFutures(requests);
     }
     
     public void clearRequestQueueByType(Request.RequestType type) {
+        List<Request> requests;
         synchronized (this) {
-            for (Iterator<Request> it = requestQueue.iterator(); it.hasNext(); ) {
-                Request request = it.next();
-                if (request.type == type) {
-                    it.remove();
-                }
-            }
+            requests = requestQueue.removeByType(type);
             if (currentRequest != null && currentRequest.type == type) {
+                requests.add(currentRequest);
                 currentRequest = null;
             }
+            onQueueSizeChanged();
+        }
+        flushDeferredCallbacks();
+        cancelFutures(requests);
+    }
+
+    //清空队列不发布失败事件，只结束请求句柄，以免等待的线程一直阻塞
+    private void cancelFutures(List<Request> requests) {
+        for (Request request : requests) {
+            if (request.transaction != null) {
+                if (!abortTransaction(request)) {
+                    continue;
+                }
+                request = request.transaction.request;
+            }
+            if (request.future != null) {
+                request.future.setCancelled();
+            }
+            if (request.mergedRequests != null) {
+                for (Request merged : request.mergedRequests) {
+                    if (merged.future != null) {
+                        merged.future.setCancelled();
+                    }
+                }
+            }
         }
     }
 
     void clearRequestQueueAndNotify() {
-        for (Request request : requestQueue) {
-            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_CONNECTION_DISCONNECTED, request.value, false);
+        List<Request> requests = new ArrayList<>();
+        synchronized (this) {
+            requests.addAll(requestQueue.drain());
+            if (currentRequest != null) {
+                requests.add(currentRequest);
+            }
+            currentRequest = null;
+            onQueueSizeChanged();
         }
-        if (currentRequest != null) {
-            handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_CONNECTION_DISCONNECTED, currentRequest.value, false);
+        flushDeferredCallbacks();
+        for (Request request : requests) {
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_CONNECTION_DISCONNECTED, false);
         }
-        clearRequestQueue();
     }
     
     public void release() {
         isReleased = true;
         clearRequestQueueAndNotify();
+        writePacer.shutdown();
     }
 
     /*
@@ -98,13 +161,23 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
 
     @Override
     public void onCharacteristicRead(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
+        markCallbackThread();
         // 读取到值
         if (currentRequest != null) {
             if (currentRequest.type == Request.RequestType.READ_CHARACTERISTIC) {
+                endRoundTrip(currentRequest);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
-                    onCharacteristicRead(currentRequest.requestId, characteristic);
+                    if (complete(currentRequest, characteristic.getValue())) {
+                        onCharacteristicRead(currentRequest.requestId, characteristic);
+                        if (currentRequest.mergedRequests != null) {
+                            for (Request merged : currentRequest.mergedRequests) {
+                                complete(merged, characteristic.getValue());
+                                onCharacteristicRead(merged.requestId, characteristic);
+                            }
+                        }
+                    }
                 } else {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 executeNextRequest();
             }
@@ -113,42 +186,64 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
 
     @Override
     public void onCharacteristicWrite(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic, final int status) {
-        if (currentRequest != null && currentRequest.waitWriteResult && currentRequest.type == Request.RequestType.WRITE_CHARACTERISTIC) {
-            currentRequest.startTime = System.currentTimeMillis();//写数据时有可能大数据请求，更新开始时间，以免被认为超时
+        markCallbackThread();
+        if (currentRequest != null && !currentRequest.waitWriteResult && currentRequest.transfer != null &&
+                currentRequest.type == Request.RequestType.WRITE_CHARACTERISTIC) {
+            //无响应写入的文件传输，包已连续发出，回调只用于确认写入位置，全部确认后才完成
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (currentRequest.remainQueue == null || currentRequest.remainQueue.isEmpty()) {
-                    onCharacteristicWrite(currentRequest.requestId, currentRequest.value);
-                    executeNextRequest();
-                } else {
-                    try {
-                        Thread.sleep(currentRequest.writeDelay);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                reportProgress(currentRequest);
+                if (currentRequest.transfer.isCompleted()) {
+                    if (complete(currentRequest, currentRequest.value)) {
+                        onCharacteristicWrite(currentRequest.requestId, currentRequest.value);
                     }
-                    if (writeFail(characteristic, currentRequest.remainQueue.remove())) {
-                        handleWriteFailed(currentRequest);
+                    executeNextRequest();
+                }
+            } else {
+                handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, true);
+            }
+        } else if (currentRequest != null && currentRequest.waitWriteResult && currentRequest.type == Request.RequestType.WRITE_CHARACTERISTIC) {
+            endRoundTrip(currentRequest);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                reportProgress(currentRequest);
+                if (currentRequest.chunks == null || !currentRequest.chunks.hasNext()) {
+                    if (complete(currentRequest, currentRequest.value)) {
+                        onCharacteristicWrite(currentRequest.requestId, currentRequest.value);
                     }
+                    executeNextRequest();
+                } else {
+                    writeNextPackage(characteristic, currentRequest, currentRequest.writeDelayNanos);
                 }
             } else {
-                handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, true);
+                handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, true);
             }
         }
     }
 
     @Override
     public void onCharacteristicChanged(final BluetoothGatt gatt, final BluetoothGattCharacteristic characteristic) {
+        markCallbackThread();
         // 收到设备notify值 （设备上报值）
         onCharacteristicChanged(characteristic);
     }
 
     @Override
     public void onReadRemoteRssi(final BluetoothGatt gatt, final int rssi, final int status) {
+        markCallbackThread();
         if (currentRequest != null) {
             if (currentRequest.type == Request.RequestType.READ_RSSI) {
+                endRoundTrip(currentRequest);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
-                    onReadRemoteRssi(currentRequest.requestId, rssi);
+                    if (complete(currentRequest, rssi)) {
+                        onReadRemoteRssi(currentRequest.requestId, rssi);
+                        if (currentRequest.mergedRequests != null) {
+                            for (Request merged : currentRequest.mergedRequests) {
+                                complete(merged, rssi);
+                                onReadRemoteRssi(merged.requestId, rssi);
+                            }
+                        }
+                    }
                 } else {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 executeNextRequest();
             }
@@ -157,31 +252,45 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
 
     @Override
     public void onDescriptorRead(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
+        markCallbackThread();
         if (currentRequest != null) {
             BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
             if (currentRequest.type == Request.RequestType.TOGGLE_NOTIFICATION) {
+                endRoundTrip(currentRequest);
                 if (status != BluetoothGatt.GATT_SUCCESS) {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 if (characteristic.getService().getUuid().equals(pendingCharacteristic.getService().getUuid()) && characteristic.getUuid().equals(pendingCharacteristic.getUuid())) {
+                    startRoundTrip(currentRequest);
                     if (enableNotificationOrIndicationFail(Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, currentRequest.value), true, characteristic)) {
-                        handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                        handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                     }
                 }
             } else if (currentRequest.type == Request.RequestType.TOGGLE_INDICATION) {
+                endRoundTrip(currentRequest);
                 if (status != BluetoothGatt.GATT_SUCCESS) {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 if (characteristic.getService().getUuid().equals(pendingCharacteristic.getService().getUuid()) && characteristic.getUuid().equals(pendingCharacteristic.getUuid())) {
+                    startRoundTrip(currentRequest);
                     if (enableNotificationOrIndicationFail(Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, currentRequest.value), false, characteristic)) {
-                        handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                        handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                     }
                 }
             } else if (currentRequest.type == Request.RequestType.READ_DESCRIPTOR) {
+                endRoundTrip(currentRequest);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
-                    onDescriptorRead(currentRequest.requestId, descriptor);
+                    if (complete(currentRequest, descriptor.getValue())) {
+                        onDescriptorRead(currentRequest.requestId, descriptor);
+                        if (currentRequest.mergedRequests != null) {
+                            for (Request merged : currentRequest.mergedRequests) {
+                                complete(merged, descriptor.getValue());
+                                onDescriptorRead(merged.requestId, descriptor);
+                            }
+                        }
+                    }
                 } else {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 executeNextRequest();
             }
@@ -190,26 +299,27 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
 
     @Override
     public void onDescriptorWrite(final BluetoothGatt gatt, final BluetoothGattDescriptor descriptor, final int status) {
+        markCallbackThread();
         if (currentRequest != null) {
             if (currentRequest.type == Request.RequestType.TOGGLE_NOTIFICATION) {
+                endRoundTrip(currentRequest);
                 if (status != BluetoothGatt.GATT_SUCCESS) {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 } else {
-                    if (Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, currentRequest.value)) {
-                        onNotificationChanged(currentRequest.requestId, descriptor, true);
-                    } else {
-                        onNotificationChanged(currentRequest.requestId, descriptor, false);
+                    boolean enabled = Arrays.equals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, currentRequest.value);
+                    if (complete(currentRequest, enabled)) {
+                        onNotificationChanged(currentRequest.requestId, descriptor, enabled);
                     }
                 }
                 executeNextRequest();
             } else if (currentRequest.type == Request.RequestType.TOGGLE_INDICATION) {
+                endRoundTrip(currentRequest);
                 if (status != BluetoothGatt.GATT_SUCCESS) {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 } else {
-                    if (Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, currentRequest.value)) {
-                        onIndicationChanged(currentRequest.requestId, descriptor, true);
-                    } else {
-                        onIndicationChanged(currentRequest.requestId, descriptor, false);
+                    boolean enabled = Arrays.equals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE, currentRequest.value);
+                    if (complete(currentRequest, enabled)) {
+                        onIndicationChanged(currentRequest.requestId, descriptor, enabled);
                     }
                 }
                 executeNextRequest();
@@ -219,39 +329,208 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
 
     @Override
     public void onMtuChanged(final BluetoothGatt gatt, final int mtu, final int status) {
+        markCallbackThread();
         if (currentRequest != null) {
             if (currentRequest.type == Request.RequestType.CHANGE_MTU) {
+                endRoundTrip(currentRequest);
                 if (status == BluetoothGatt.GATT_SUCCESS) {
+                    this.mtu = mtu;
+                    complete(currentRequest, mtu);
                     onMtuChanged(currentRequest.requestId, mtu);
                 } else {
-                    handleFaildCallback(currentRequest.requestId, currentRequest.type, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, currentRequest.value, false);
+                    handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
                 }
                 executeNextRequest();
             }
         }
     }
 
-    private void handleFaildCallback(String requestId, Request.RequestType requestType, int failType, byte[] value, boolean executeNext) {
-        onRequestFialed(requestId, requestType, failType, value);
+    @Override
+    public void onReliableWriteCompleted(final BluetoothGatt gatt, final int status) {
+        markCallbackThread();
+        if (currentRequest != null && currentRequest.type == Request.RequestType.TRANSACTION) {
+            endRoundTrip(currentRequest);
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                completeTransaction(currentRequest.transaction);
+            } else {
+                handleFaildCallback(currentRequest, REQUEST_FAIL_TYPE_GATT_STATUS_FAILED, false);
+            }
+            executeNextRequest();
+        }
+    }
+
+    //合并的读请求同样通知失败，事务中的步骤失败时整个事务失败
+    private void handleFaildCallback(Request request, final int failType, boolean executeNext) {
+        if (request.transaction != null && !abortTransaction(request)) {
+            if (executeNext) {
+                executeNextRequest();
+            }
+            return;
+        }
+        final Request failed = request.transaction != null ? request.transaction.request : request;
+        final List<Request> mergedRequests = failed.mergedRequests;
+        runUnlocked(new Runnable() {
+            @Override
+            public void run() {
+                if (failed.future != null) {
+                    failed.future.fail(failType);
+                }
+                onRequestFialed(failed.requestId, failed.type, failType, failed.value);
+                if (mergedRequests != null) {
+                    for (Request merged : mergedRequests) {
+                        if (merged.future != null) {
+                            merged.future.fail(failType);
+                        }
+                        onRequestFialed(merged.requestId, merged.type, failType, merged.value);
+                    }
+                }
+            }
+        });
         if (executeNext) {
             executeNextRequest();
         }
     }
 
-    public void changeMtu(@NonNull String requestId, int mtu) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            enqueue(Request.newChangeMtuRequest(requestId, mtu));
+    /**
+     * 先完成请求句柄，再按原方式发布事件。事务中的步骤只记录结果
+     * @return 是否需要发布事件
+     */
+    private boolean complete(Request request, final Object result) {
+        if (request.transaction != null && request.type != Request.RequestType.TRANSACTION) {
+            Transaction transaction = request.transaction;
+            transaction.stepResults[transaction.stepIndex] = result;
+            transaction.stepDurations[transaction.stepIndex] = System.nanoTime() - transaction.stepStartNanos;
+            return false;
+        }
+        final RequestFuture<?> future = request.future;
+        if (future != null) {
+            runUnlocked(new Runnable() {
+                @Override
+                public void run() {
+                    future.complete(result);
+                }
+            });
+        }
+        return true;
+    }
+
+    //未持有锁时直接执行，否则在释放锁后由flushDeferredCallbacks执行
+    private void runUnlocked(Runnable callback) {
+        if (Thread.holdsLock(this)) {
+            deferredCallbacks.get().add(callback);
         } else {
-            handleFaildCallback(requestId, Request.RequestType.CHANGE_MTU, REQUEST_FAIL_TYPE_API_LEVEL_TOO_LOW, BleUtils.numberToBytes(false, mtu, 4), false);
+            callback.run();
+        }
+    }
+
+    //释放锁后调用，执行本线程在锁内产生的回调。回调中再次入队产生的回调也按顺序执行
+    private void flushDeferredCallbacks() {
+        if (Thread.holdsLock(this)) {
+            return;
         }
+        ArrayList<Runnable> callbacks = deferredCallbacks.get();
+        while (!callbacks.isEmpty()) {
+            try {
+                callbacks.remove(0).run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static void markCallbackThread() {
+        callbackThread.set(Boolean.TRUE);
+    }
+
+    //BLOCK只在工作线程上等待。持有锁时等待会释放外层的锁；主线程、超时处理线程、蓝牙回调和节拍线程阻塞会卡住回调，都直接拒绝
+    private boolean mayBlock() {
+        Looper looper = Looper.myLooper();
+        return !Thread.holdsLock(this) && (looper == null || (looper != Looper.getMainLooper() && looper != handler.getLooper())) &&
+                callbackThread.get() == null;
+    }
+
+    /**
+     * 结束事务，放弃未生效的可靠写入
+     * @return 事务此前未结束时返回true
+     */
+    private boolean abortTransaction(Request request) {
+        Transaction transaction = request.transaction;
+        synchronized (this) {
+            if (transaction.finished) {
+                return false;
+            }
+            transaction.finished = true;
+        }
+        if (request.type != Request.RequestType.TRANSACTION) {
+            Ble.println(BaseConnection.class, Log.DEBUG, "transaction aborted at step %d! [requestId: %s, type: %s]",
+                    transaction.stepIndex, transaction.request.requestId, request.type);
+        }
+        if (transaction.reliableWriteBegun && bluetoothGatt != null) {
+            transaction.reliableWriteBegun = false;
+            bluetoothGatt.abortReliableWrite();
+        }
+        return true;
+    }
+
+    public RequestFuture<Integer> changeMtu(@NonNull String requestId, int mtu) {
+        return changeMtu(requestId, mtu, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<Integer> changeMtu(@NonNull String requestId, int mtu, @NonNull Request.Priority priority) {
+        return changeMtu(requestId, mtu, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为协商后的MTU
+     */
+    public RequestFuture<Integer> changeMtu(@NonNull String requestId, int mtu, @NonNull Request.Priority priority, long deadlineMillis) {
+        Request request = Request.newChangeMtuRequest(requestId, mtu);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return fail(request, REQUEST_FAIL_TYPE_API_LEVEL_TOO_LOW);
+        }
+        return enqueue(request, priority, deadlineMillis);
+    }
+
+    /**
+     * 新建事务，添加步骤后调用{@link Transaction#commit()}提交
+     * @param requestId 事务的请求码
+     */
+    @NonNull
+    public Transaction newTransaction(@NonNull String requestId) {
+        return new Transaction(this, requestId);
+    }
+
+    @NonNull
+    RequestFuture<TransactionResult> commit(@NonNull Transaction transaction, @NonNull Request.Priority priority, long deadlineMillis, boolean hasEmptyValue) {
+        if (hasEmptyValue) {
+            return fail(transaction.request, REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY);
+        }
+        return enqueue(transaction.request, priority, deadlineMillis);
     }
 
     /*
      * 请求读取characteristic的值
      * @param requestId 请求码
      */
-    public void readCharacteristic(@NonNull String requestId, UUID service, UUID characteristic) {
-        enqueue(Request.newReadCharacteristicRequest(requestId, service, characteristic));
+    public RequestFuture<byte[]> readCharacteristic(@NonNull String requestId, UUID service, UUID characteristic) {
+        return readCharacteristic(requestId, service, characteristic, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<byte[]> readCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, @NonNull Request.Priority priority) {
+        return readCharacteristic(requestId, service, characteristic, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为读到的值
+     */
+    public RequestFuture<byte[]> readCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, @NonNull Request.Priority priority, long deadlineMillis) {
+        return enqueue(Request.newReadCharacteristicRequest(requestId, service, characteristic), priority, deadlineMillis);
     }
 
     /**
@@ -259,55 +538,537 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
      * @param requestId 请求码
      * @param enable 开启还是关闭
      */
-    public void toggleNotification(@NonNull String requestId, UUID service, UUID characteristic, boolean enable) {
-        enqueue(Request.newToggleNotificationRequest(requestId, service, characteristic, enable));
+    public RequestFuture<Boolean> toggleNotification(@NonNull String requestId, UUID service, UUID characteristic, boolean enable) {
+        return toggleNotification(requestId, service, characteristic, enable, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<Boolean> toggleNotification(@NonNull String requestId, UUID service, UUID characteristic, boolean enable, @NonNull Request.Priority priority) {
+        return toggleNotification(requestId, service, characteristic, enable, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为是否开启
+     */
+    public RequestFuture<Boolean> toggleNotification(@NonNull String requestId, UUID service, UUID characteristic, boolean enable, @NonNull Request.Priority priority, long deadlineMillis) {
+        return enqueue(Request.newToggleNotificationRequest(requestId, service, characteristic, enable), priority, deadlineMillis);
     }
 
     /**
      * @param enable 开启还是关闭
      */
-    public void toggleIndication(@NonNull String requestId, UUID service, UUID characteristic, boolean enable) {
-        enqueue(Request.newToggleIndicationRequest(requestId, service, characteristic, enable));
+    public RequestFuture<Boolean> toggleIndication(@NonNull String requestId, UUID service, UUID characteristic, boolean enable) {
+        return toggleIndication(requestId, service, characteristic, enable, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<Boolean> toggleIndication(@NonNull String requestId, UUID service, UUID characteristic, boolean enable, @NonNull Request.Priority priority) {
+        return toggleIndication(requestId, service, characteristic, enable, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为是否开启
+     */
+    public RequestFuture<Boolean> toggleIndication(@NonNull String requestId, UUID service, UUID characteristic, boolean enable, @NonNull Request.Priority priority, long deadlineMillis) {
+        return enqueue(Request.newToggleIndicationRequest(requestId, service, characteristic, enable), priority, deadlineMillis);
+    }
+
+    public RequestFuture<byte[]> readDescriptor(@NonNull String requestId, UUID service, UUID characteristic, UUID descriptor) {
+        return readDescriptor(requestId, service, characteristic, descriptor, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<byte[]> readDescriptor(@NonNull String requestId, UUID service, UUID characteristic, UUID descriptor, @NonNull Request.Priority priority) {
+        return readDescriptor(requestId, service, characteristic, descriptor, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为读到的值
+     */
+    public RequestFuture<byte[]> readDescriptor(@NonNull String requestId, UUID service, UUID characteristic, UUID descriptor, @NonNull Request.Priority priority, long deadlineMillis) {
+        return enqueue(Request.newReadDescriptorRequest(requestId, service, characteristic, descriptor), priority, deadlineMillis);
+    }
+
+    public RequestFuture<byte[]> writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, byte[] value) {
+        return writeCharacteristic(requestId, service, characteristic, value, Request.Priority.INTERACTIVE);
     }
 
-    public void readDescriptor(@NonNull String requestId, UUID service, UUID characteristic, UUID descriptor) {
-        enqueue(Request.newReadDescriptorRequest(requestId, service, characteristic, descriptor));
+    public RequestFuture<byte[]> writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, byte[] value, @NonNull Request.Priority priority) {
+        return writeCharacteristic(requestId, service, characteristic, value, priority, 0);
     }
 
-    public void writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, byte[] value) {
+    /**
+     * @param priority 请求优先级，大量数据如固件升级可用{@link Request.Priority#BULK}，避免阻塞其他请求
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为写入的值
+     */
+    public RequestFuture<byte[]> writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, byte[] value, @NonNull Request.Priority priority, long deadlineMillis) {
+        Request request = Request.newWriteCharacteristicRequest(requestId, service, characteristic, value);
         if (value == null || value.length == 0) {
-            handleFaildCallback(requestId, Request.RequestType.WRITE_CHARACTERISTIC, REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY, value, false);
-            return;
+            return fail(request, REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY);
+        }
+        return enqueue(request, priority, deadlineMillis);
+    }
+
+    /**
+     * 写入ByteBuffer中position到limit的内容，不复制数据，也不改变data的位置，写入完成前不要修改其内容。
+     * 写入结果和失败事件中的value为null
+     *
+     * @param priority 请求优先级
+     * @return 请求句柄，结果为null
+     */
+    public RequestFuture<byte[]> writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, @NonNull ByteBuffer data, @NonNull Request.Priority priority) {
+        return writeCharacteristic(requestId, service, characteristic, data, priority, 0);
+    }
+
+    /**
+     * 同{@link #writeCharacteristic(String, UUID, UUID, ByteBuffer, Request.Priority)}
+     *
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     */
+    public RequestFuture<byte[]> writeCharacteristic(@NonNull String requestId, UUID service, UUID characteristic, @NonNull ByteBuffer data, @NonNull Request.Priority priority, long deadlineMillis) {
+        Request request = Request.newWriteCharacteristicRequest(requestId, service, characteristic, data);
+        if (!data.hasRemaining()) {
+            return fail(request, REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY);
         }
-        enqueue(Request.newWriteCharacteristicRequest(requestId, service, characteristic, value));
+        return enqueue(request, priority, deadlineMillis);
+    }
+
+    /**
+     * 新建文件传输，设置后调用{@link FileTransfer#start()}开始。文件在传输完成前不能关闭
+     * @param channel 要写入的文件
+     */
+    @NonNull
+    public FileTransfer newFileTransfer(@NonNull String requestId, UUID service, UUID characteristic, @NonNull FileChannel channel) {
+        return new FileTransfer(this, requestId, service, characteristic, channel);
+    }
+
+    public RequestFuture<Integer> readRssi(@NonNull String requestId) {
+        return readRssi(requestId, Request.Priority.INTERACTIVE);
+    }
+
+    public RequestFuture<Integer> readRssi(@NonNull String requestId, @NonNull Request.Priority priority) {
+        return readRssi(requestId, priority, 0);
+    }
+
+    /**
+     * @param priority 请求优先级
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限。入队时已过期或排队到截止时间仍未执行的请求
+     *                       以{@link #REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败
+     * @return 请求句柄，结果为信号强度
+     */
+    public RequestFuture<Integer> readRssi(@NonNull String requestId, @NonNull Request.Priority priority, long deadlineMillis) {
+        return enqueue(Request.newReadRssiRequest(requestId), priority, deadlineMillis);
+    }
+
+    /**
+     * 获取指定优先级请求队列的统计
+     */
+    @NonNull
+    public synchronized RequestLaneMetrics getRequestLaneMetrics(@NonNull Request.Priority priority) {
+        return requestQueue.getMetrics(priority);
+    }
+
+    /**
+     * 清零请求队列统计
+     */
+    public synchronized void resetRequestLaneMetrics() {
+        requestQueue.resetMetrics();
+    }
+
+    /**
+     * 获取指定类型请求的往返时间和超时统计
+     */
+    @NonNull
+    public RequestTimingMetrics getRequestTimingMetrics(@NonNull Request.RequestType type) {
+        return roundTripEstimator.getMetrics(type);
+    }
+
+    /**
+     * 清零往返时间估算和超时统计
+     */
+    public void resetRequestTimingMetrics() {
+        roundTripEstimator.reset();
     }
 
-    public void readRssi(@NonNull String requestId) {
-        enqueue(Request.newReadRssiRequest(requestId));
+    /**
+     * 获取分包发送节拍的偏差统计
+     */
+    @NonNull
+    public PacingMetrics getPacingMetrics() {
+        return writePacer.getMetrics();
+    }
+
+    public void resetPacingMetrics() {
+        writePacer.resetMetrics();
     }
     
-    private void enqueue(Request request) {        
+    <T> RequestFuture<T> enqueue(Request request, Request.Priority priority, long deadlineMillis) {
+        RequestFuture<T> future = new RequestFuture<>(this, request);
+        request.future = future;
+        request.priority = priority;
+        request.deadline = Math.max(0, deadlineMillis);
         if (isReleased) {
-            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_CONNECTION_RELEASED, request.value, false);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_CONNECTION_RELEASED, false);
+        } else if (isExpired(request, System.currentTimeMillis())) {
+            //空闲时入队即执行，不经过出队检查，在这里拦截
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED, false);
         } else {
+            boolean mayBlock = mayBlock();
             synchronized (this) {
                 if (currentRequest == null) {
                     executeRequest(request);
-                } else {
-                    requestQueue.add(request);                  
+                } else if (!mergeRead(request) && !coalesceWrite(request) && admit(request, mayBlock)) {
+                    if (isExpired(request, System.currentTimeMillis())) {
+                        handleFaildCallback(request, REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED, false);//等待空位期间已过期
+                    } else if (currentRequest == null) {
+                        executeRequest(request);//等待期间队列已执行完
+                    } else {
+                        requestQueue.add(request);
+                        onQueueSizeChanged();
+                    }
+                }
+            }
+            flushDeferredCallbacks();
+        }
+        return future;
+    }
+
+    //队列已满时按溢出策略处理，需持有锁。返回是否可以入队，不能入队的请求已回调失败
+    private boolean admit(Request request, boolean mayBlock) {
+        int capacity = config.requestQueueCapacity;
+        if (capacity <= 0 || requestQueue.size() < capacity) {
+            return true;
+        }
+        switch(config.overflowPolicy) {
+            case DROP_OLDEST:
+                Request dropped = requestQueue.dropOldest(request.priority);
+                if (dropped != null) {
+                    droppedCount++;
+                    handleFaildCallback(dropped, REQUEST_FAIL_TYPE_QUEUE_FULL, false);
+                    return true;
+                }
+                break;
+            case BLOCK:
+                //不能阻塞的线程按REJECT处理
+                if (mayBlock) {
+                    blockedCount++;
+                    if (awaitSpace(capacity)) {
+                        return true;
+                    }
+                    if (isReleased) {
+                        handleFaildCallback(request, REQUEST_FAIL_TYPE_CONNECTION_RELEASED, false);
+                        return false;
+                    }
                 }
+                break;
+        }
+        rejectedCount++;
+        handleFaildCallback(request, REQUEST_FAIL_TYPE_QUEUE_FULL, false);
+        return false;
+    }
+
+    //等待队列有空位，出队时唤醒
+    private boolean awaitSpace(int capacity) {
+        long deadline = System.currentTimeMillis() + config.overflowBlockTimeoutMillis;
+        while (requestQueue.size() >= capacity && !isReleased) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
+        return !isReleased;
+    }
+
+    //队列长度变化后调用，需持有锁。唤醒等待入队的线程，拥塞状态变化时回调
+    private void onQueueSizeChanged() {
+        int capacity = config.requestQueueCapacity;
+        if (capacity <= 0) {
+            return;
+        }
+        int size = requestQueue.size();
+        if (size < capacity) {
+            notifyAll();
+        }
+        boolean congested = this.congested ? size > capacity / 2 : size >= capacity;
+        if (congested != this.congested) {
+            this.congested = congested;
+            if (backpressureListener != null) {
+                final BackpressureListener listener = backpressureListener;
+                final boolean isCongested = congested;
+                final int queueSize = size;
+                runUnlocked(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onBackpressureChanged(bluetoothDevice, isCongested, queueSize);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 设置背压回调，在设置了队列容量时，队列满和降到容量一半时回调
+     */
+    public synchronized void setBackpressureListener(BackpressureListener listener) {
+        backpressureListener = listener;
+    }
+
+    /**
+     * 获取请求队列的深度和溢出统计
+     */
+    @NonNull
+    public synchronized RequestQueueMetrics getRequestQueueMetrics() {
+        return new RequestQueueMetrics(requestQueue.size(), requestQueue.getMaxSize(), config.requestQueueCapacity,
+                rejectedCount, droppedCount, blockedCount, congested);
+    }
+
+    /**
+     * 清零请求队列溢出统计，当前深度作为新的最大深度
+     */
+    public synchronized void resetRequestQueueMetrics() {
+        requestQueue.resetMaxSize();
+        rejectedCount = 0;
+        droppedCount = 0;
+        blockedCount = 0;
+    }
+
+    //不入队直接失败的请求
+    <T> RequestFuture<T> fail(Request request, int failType) {
+        RequestFuture<T> future = new RequestFuture<>(this, request);
+        request.future = future;
+        handleFaildCallback(request, failType, false);
+        return future;
+    }
+
+    /**
+     * 取消排队中的请求，已在执行的请求不受影响
+     * @return 请求在队列中并被移除时返回true
+     */
+    boolean cancel(final Request request) {
+        synchronized (this) {
+            Request host = requestQueue.find(new RequestQueue.Condition() {
+                @Override
+                public boolean accept(@NonNull Request queued) {
+                    return queued == request || (queued.mergedRequests != null && queued.mergedRequests.contains(request));
+                }
+            });
+            if (host == null) {
+                return false;
+            }
+            if (host != request) {
+                host.mergedRequests.remove(request);
+            } else if (host.mergedRequests == null || host.mergedRequests.isEmpty()) {
+                requestQueue.removeAll(new RequestQueue.Condition() {
+                    @Override
+                    public boolean accept(@NonNull Request queued) {
+                        return queued == request;
+                    }
+                });
+            } else {
+                //合并到此请求的读请求还要执行，由其中第一个接替排队位置
+                Request next = host.mergedRequests.remove(0);
+                next.mergedRequests = host.mergedRequests.isEmpty() ? null : host.mergedRequests;
+                host.mergedRequests = null;
+                requestQueue.replace(host, next);
+            }
+            onQueueSizeChanged();
+        }
+        flushDeferredCallbacks();
+        if (request.future != null) {
+            request.future.setCancelled();
+        }
+        handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_CANCELLED, false);
+        return true;
+    }
+
+    /**
+     * 取消指定请求码的所有排队中的请求，已在执行的请求不受影响。被取消的请求以{@link #REQUEST_FAIL_TYPE_REQUEST_CANCELLED}回调失败
+     * @return 取消的请求数
+     */
+    public int cancelRequest(@NonNull final String requestId) {
+        return cancelRequests(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(@NonNull Request request) {
+                return requestId.equals(request.requestId);
+            }
+        });
+    }
+
+    /**
+     * 取消指定标签的所有排队中的请求，标签通过{@link RequestFuture#setTag(Object)}设置
+     * @return 取消的请求数
+     */
+    public int cancelRequestsByTag(@NonNull final Object tag) {
+        return cancelRequests(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(@NonNull Request request) {
+                return tag.equals(request.tag);
+            }
+        });
+    }
+
+    private int cancelRequests(RequestQueue.Condition condition) {
+        List<Request> targets = new ArrayList<>();
+        synchronized (this) {
+            //合并到其他请求的读请求也要单独判断
+            List<Request> queued = requestQueue.findAll(new RequestQueue.Condition() {
+                @Override
+                public boolean accept(@NonNull Request request) {
+                    return true;
+                }
+            });
+            for (Request request : queued) {
+                if (condition.accept(request)) {
+                    targets.add(request);
+                }
+                if (request.mergedRequests != null) {
+                    for (Request merged : request.mergedRequests) {
+                        if (condition.accept(merged)) {
+                            targets.add(merged);
+                        }
+                    }
+                }
+            }
+        }
+        int count = 0;
+        for (Request request : targets) {
+            if (cancel(request)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //与队列中相同的读请求合并，只记下请求码
+    private boolean mergeRead(final Request request) {
+        if (!config.readDeduplication || (request.type != Request.RequestType.READ_CHARACTERISTIC &&
+                request.type != Request.RequestType.READ_DESCRIPTOR && request.type != Request.RequestType.READ_RSSI)) {
+            return false;
+        }
+        //队列中有对同一特征的写入或开关通知时，读到的值可能早于这些请求，不合并
+        if (request.characteristic != null && requestQueue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(@NonNull Request queued) {
+                if (queued.type == Request.RequestType.TRANSACTION) {
+                    return true;
+                }
+                return queued.type != Request.RequestType.READ_CHARACTERISTIC && queued.type != Request.RequestType.READ_DESCRIPTOR &&
+                        queued.type != Request.RequestType.READ_RSSI && queued.type != Request.RequestType.CHANGE_MTU &&
+                        queued.service.equals(request.service) && queued.characteristic.equals(request.characteristic);
+            }
+        }) != null) {
+            return false;
+        }
+        Request target = requestQueue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(@NonNull Request queued) {
+                return queued.type == request.type && equals(queued.service, request.service) &&
+                        equals(queued.characteristic, request.characteristic) && equals(queued.descriptor, request.descriptor);
+            }
+
+            private boolean equals(UUID a, UUID b) {
+                return a == null ? b == null : a.equals(b);
+            }
+        });
+        //合并到低优先级的请求会推迟新请求的结果
+        if (target == null || target.priority.ordinal() > request.priority.ordinal()) {
+            return false;
+        }
+        if (target.mergedRequests == null) {
+            target.mergedRequests = new ArrayList<>(2);
+        }
+        target.mergedRequests.add(request);
+        return true;
+    }
+
+    //同一特征只保留最新的写入，新请求占用旧请求的排队位置
+    private boolean coalesceWrite(final Request request) {
+        if (request.type != Request.RequestType.WRITE_CHARACTERISTIC || request.transfer != null ||
+                !config.isWriteCoalescing(request.service, request.characteristic)) {
+            return false;
+        }
+        Request target = requestQueue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(@NonNull Request queued) {
+                return queued.type == Request.RequestType.WRITE_CHARACTERISTIC && queued.transfer == null && queued.priority == request.priority &&
+                        queued.service.equals(request.service) && queued.characteristic.equals(request.characteristic);
+            }
+        });
+        if (target == null || !requestQueue.replace(target, request)) {
+            return false;
+        }
+        handleFaildCallback(target, REQUEST_FAIL_TYPE_REQUEST_REPLACED, false);
+        return true;
     }
 
     private void executeNextRequest() {
         synchronized (this) {
-            if (requestQueue.isEmpty()) {
+            //事务执行期间只执行事务的下一步
+            if (currentRequest != null && currentRequest.transaction != null && currentRequest.type != Request.RequestType.TRANSACTION &&
+                    executeNextTransactionStep(currentRequest.transaction)) {
+                return;
+            }
+            Request request = pollUnexpired();
+            onQueueSizeChanged();
+            if (request == null) {
                 currentRequest = null;
             } else {
-                executeRequest(requestQueue.remove(0));
+                executeRequest(request);
             }
         }
+        flushDeferredCallbacks();
+    }
+
+    //取出下一个未过截止时间的请求，过期的不执行直接失败。合并的读请求各自判断，未过期的接替执行
+    private Request pollUnexpired() {
+        long now = System.currentTimeMillis();
+        Request request;
+        while ((request = requestQueue.poll(config)) != null) {
+            if (!isExpired(request, now)) {
+                return request;
+            }
+            List<Request> mergedRequests = request.mergedRequests;
+            request.mergedRequests = null;
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED, false);
+            if (mergedRequests != null) {
+                Request next = null;
+                for (Request merged : mergedRequests) {
+                    if (isExpired(merged, now)) {
+                        handleFaildCallback(merged, REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED, false);
+                    } else if (next == null) {
+                        next = merged;
+                    } else {
+                        if (next.mergedRequests == null) {
+                            next.mergedRequests = new ArrayList<>(2);
+                        }
+                        next.mergedRequests.add(merged);
+                    }
+                }
+                if (next != null) {
+                    return next;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isExpired(Request request, long now) {
+        return request.deadline > 0 && now >= request.deadline;
     }
        
     private static class TimeoutHandler extends Handler {
@@ -325,7 +1086,8 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
                     case MSG_REQUEST_TIMEOUT:
                         Request request = (Request) msg.obj;
                         if (connection.currentRequest != null && connection.currentRequest == request) {
-                            connection.handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_REQUEST_TIMEOUT, request.value, false);
+                            connection.roundTripEstimator.onTimeout(request.type);
+                            connection.handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_TIMEOUT, false);
                             connection.executeNextRequest();
                         }
                         break;
@@ -334,12 +1096,74 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
         }
     }
         
+    //事务未结束时执行下一步，全部完成后生效可靠写入或直接完成事务。返回false时继续执行队列
+    private boolean executeNextTransactionStep(Transaction transaction) {
+        if (transaction.finished) {
+            return false;
+        }
+        if (transaction.stepIndex + 1 < transaction.steps.size()) {
+            transaction.stepIndex++;
+            transaction.stepStartNanos = System.nanoTime();
+            executeRequest(transaction.steps.get(transaction.stepIndex));
+            return true;
+        }
+        if (transaction.reliableWriteBegun) {
+            Request request = transaction.request;
+            currentRequest = request;
+            startRoundTrip(request);
+            if (bluetoothGatt == null || !bluetoothGatt.executeReliableWrite()) {
+                handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
+            }
+            return true;
+        }
+        completeTransaction(transaction);
+        return false;
+    }
+
+    private void completeTransaction(Transaction transaction) {
+        synchronized (this) {
+            if (transaction.finished) {
+                return;
+            }
+            transaction.finished = true;
+            transaction.reliableWriteBegun = false;
+        }
+        final TransactionResult result = transaction.newResult();
+        final Request request = transaction.request;
+        complete(request, result);
+        runUnlocked(new Runnable() {
+            @Override
+            public void run() {
+                onTransactionCompleted(request.requestId, result);
+            }
+        });
+    }
+
+    private void executeTransaction(Request request) {
+        currentRequest = request;
+        Transaction transaction = request.transaction;
+        if (!bluetoothAdapter.isEnabled()) {
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_BLUETOOTH_ADAPTER_DISABLED, true);
+        } else if (bluetoothGatt == null) {
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_GATT_IS_NULL, true);
+        } else if (transaction.reliableWrite && !bluetoothGatt.beginReliableWrite()) {
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
+        } else {
+            transaction.reliableWriteBegun = transaction.reliableWrite;
+            transaction.startNanos = System.nanoTime();
+            transaction.stepIndex = 0;
+            transaction.stepStartNanos = transaction.startNanos;
+            executeRequest(transaction.steps.get(0));
+        }
+    }
+        
     private void executeRequest(Request request) {
+        if (request.type == Request.RequestType.TRANSACTION) {
+            executeTransaction(request);
+            return;
+        }
         currentRequest = request;
-        currentRequest.startTime = System.currentTimeMillis();    
-        handler.removeMessages(MSG_REQUEST_TIMEOUT);
-        Message msg = Message.obtain(handler, MSG_REQUEST_TIMEOUT, request);
-        handler.sendMessageDelayed(msg, 1000);
+        startRoundTrip(request);
         if (bluetoothAdapter.isEnabled()) {
             if (bluetoothGatt != null) {
                 switch(request.type) {                    
@@ -357,128 +1181,222 @@ public abstract class BaseConnection extends BluetoothGattCallback implements IC
                                 switch(request.type) {
                                     case TOGGLE_NOTIFICATION:
                                     case TOGGLE_INDICATION:
-                                        executeIndicationOrNotification(characteristic, request.requestId, request.type, request.value);
+                                        executeIndicationOrNotification(characteristic, request);
                                         break;
                                     case READ_CHARACTERISTIC:
-                                        executeReadCharacteristic(characteristic, request.requestId);
+                                        executeReadCharacteristic(characteristic, request);
                                         break;
                                     case READ_DESCRIPTOR:
-                                        executeReadDescriptor(characteristic, request.descriptor, request.requestId);
+                                        executeReadDescriptor(characteristic, request);
                                         break;
                                     case WRITE_CHARACTERISTIC:                                        
                                         executeWriteCharacteristic(characteristic, request);
                                         break;
                                 }
                             } else {
-                                handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_NULL_CHARACTERISTIC, request.value, true);
+                                handleFaildCallback(request, REQUEST_FAIL_TYPE_NULL_CHARACTERISTIC, true);
                             }
                         } else {
-                            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_NULL_SERVICE, request.value, true);
+                            handleFaildCallback(request, REQUEST_FAIL_TYPE_NULL_SERVICE, true);
                         }                        
                         break;
                 }
             } else {
-                handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_GATT_IS_NULL, request.value, true);
+                handleFaildCallback(request, REQUEST_FAIL_TYPE_GATT_IS_NULL, true);
             }
         } else {
-            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_BLUETOOTH_ADAPTER_DISABLED, request.value, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_BLUETOOTH_ADAPTER_DISABLED, true);
         }
     }
     
+    //开始一次ATT往返，按请求类型设置超时
+    private void startRoundTrip(Request request) {
+        request.startTime = System.currentTimeMillis();
+        armTimeout(request, 0);
+    }
+
+    private void armTimeout(Request request, long extraMillis) {
+        handler.removeMessages(MSG_REQUEST_TIMEOUT);
+        Message msg = Message.obtain(handler, MSG_REQUEST_TIMEOUT, request);
+        handler.sendMessageDelayed(msg, roundTripEstimator.getTimeoutMillis(request.type, config) + extraMillis);
+    }
+
+    //收到响应，记录往返时间
+    private void endRoundTrip(Request request) {
+        roundTripEstimator.sample(request.type, System.currentTimeMillis() - request.startTime);
+    }
+    
     private void executeChangeMtu(Request request) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             if (!bluetoothGatt.requestMtu((int) BleUtils.bytesToLong(false, request.value))) {
-                handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_REQUEST_FAILED, request.value, true);
+                handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
             }
         } else {
-            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_API_LEVEL_TOO_LOW, request.value, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_API_LEVEL_TOO_LOW, true);
         }
     }
     
     private void executeReadRssi(Request request) {
         if (!bluetoothGatt.readRemoteRssi()) {
-            handleFaildCallback(request.requestId, request.type, REQUEST_FAIL_TYPE_REQUEST_FAILED, request.value, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
         }
     }
     
-    private void executeReadCharacteristic(BluetoothGattCharacteristic characteristic, String requestId) {
+    private void executeReadCharacteristic(BluetoothGattCharacteristic characteristic, Request request) {
         if (!bluetoothGatt.readCharacteristic(characteristic)) {
-            handleFaildCallback(requestId, Request.RequestType.READ_CHARACTERISTIC, REQUEST_FAIL_TYPE_REQUEST_FAILED, null, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
         }
     }
 
     private void executeWriteCharacteristic(BluetoothGattCharacteristic characteristic, Request request) {
-        try {
-            request.waitWriteResult = config.waitWriteResult;
-            request.writeDelay = config.packageWriteDelayMillis;
-            int packSize = config.packageSize;
-            int requestWriteDelayMillis = config.requestWriteDelayMillis;
-            Thread.sleep(requestWriteDelayMillis > 0 ? requestWriteDelayMillis : request.writeDelay);
-            if (request.value.length > packSize) {
-                List<byte[]> list = BleUtils.splitPackage(request.value, packSize);  
-                if (!request.waitWriteResult) {//不等待则遍历发送
-                    for (int i = 0; i < list.size(); i++) {
-                        byte[] bytes = list.get(i);
-                        if (i > 0) {
-                            Thread.sleep(request.writeDelay);
-                        }
-                        if (writeFail(characteristic, bytes)) {//写失败
-                            handleWriteFailed(request);
-                            return;
-                        }
-                    }
-                } else {//等待则只直接发送第一包，剩下的添加到队列等待回调
-                    request.remainQueue = new ConcurrentLinkedQueue<>();
-                    request.remainQueue.addAll(list);
-                    if (writeFail(characteristic, request.remainQueue.remove())) {//写失败
-                        handleWriteFailed(request);
-                        return;
-                    }
+        //可靠写入必须逐个确认
+        request.waitWriteResult = config.waitWriteResult || (request.transaction != null && request.transaction.reliableWrite);
+        request.writeDelayNanos = config.packageWriteDelayNanos;
+        //写入类型每个请求只查一次
+        Integer writeType = config.getWriteType(characteristic.getService().getUuid(), characteristic.getUuid());
+        request.writeType = writeType != null && (writeType == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT || writeType == BluetoothGattCharacteristic.WRITE_TYPE_SIGNED ||
+                writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) ? writeType : -1;
+        int packSize = getPackageSize(characteristic, request.writeType);
+        //不预先拆包，发送时才从原数据取出下一包
+        if (request.transfer != null) {
+            request.chunks = request.transfer.newCursor(packSize);
+        } else {
+            request.chunks = request.data != null ? new ChunkCursor(request.data, packSize) : new ChunkCursor(request.value, packSize);
+        }
+        int requestWriteDelayMillis = config.requestWriteDelayMillis;
+        writeNextPackage(characteristic, request, requestWriteDelayMillis > 0 ?
+                TimeUnit.MILLISECONDS.toNanos(requestWriteDelayMillis) : request.writeDelayNanos);
+    }
+
+    //开启自动MTU时分包大小由MTU决定
+    private int getPackageSize(BluetoothGattCharacteristic characteristic, int writeType) {
+        if (config.autoRequestMtu <= 0) {
+            return config.packageSize;
+        }
+        if (writeType == -1) {
+            writeType = characteristic.getWriteType();
+        }
+        int size = mtu - ATT_WRITE_HEADER_SIZE;
+        return writeType == BluetoothGattCharacteristic.WRITE_TYPE_SIGNED ? size - ATT_SIGNATURE_SIZE : size;
+    }
+
+    /**
+     * 当前协商到的MTU，重新连接后恢复为23
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * 新的链路建立，MTU恢复默认值
+     */
+    void resetMtu() {
+        mtu = DEFAULT_MTU;
+    }
+
+    //延时后发送下一包，延时在节拍线程上等待，不阻塞当前线程。不延时则直接在当前线程发送
+    private void writeNextPackage(final BluetoothGattCharacteristic characteristic, final Request request, long delayNanos) {
+        if (delayNanos <= 0) {
+            writePackages(characteristic, request);
+        } else {
+            //等待发送的时间不计入超时
+            armTimeout(request, TimeUnit.NANOSECONDS.toMillis(delayNanos));
+            writePacer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    markCallbackThread();
+                    writePackages(characteristic, request);
+                }
+            }, delayNanos);
+        }
+    }
+
+    //发送剩余的包。等待写入结果时每次只发一包，其余在回调中继续；不等待时连续发送，有包间延时则交给节拍线程
+    private void writePackages(BluetoothGattCharacteristic characteristic, final Request request) {
+        while (true) {
+            synchronized (this) {
+                if (currentRequest != request || request.chunks == null) {
+                    return;//等待期间请求已超时或被清除
                 }
-            } else if (writeFail(characteristic, request.value)) {
+            }
+            //每包重新计时，以免大数据请求被认为超时
+            startRoundTrip(request);
+            byte[] value;
+            try {
+                value = request.chunks.next();
+            } catch (IOException e) {
+                e.printStackTrace();
                 handleWriteFailed(request);
                 return;
-            }                       
-            if (!request.waitWriteResult) {
-                onCharacteristicWrite(request.requestId, request.value);
-                executeNextRequest();
             }
-        } catch (InterruptedException e) {
-            handleWriteFailed(request);
+            if (writeFail(characteristic, request.writeType, value)) {
+                handleWriteFailed(request);
+                return;
+            }
+            if (request.waitWriteResult) {
+                return;
+            }
+            if (!request.chunks.hasNext()) {
+                //文件传输的写入位置和完成都以写入回调为准
+                if (request.transfer == null) {
+                    if (complete(request, request.value)) {
+                        //直接在入队时发送完成的，此时还持有锁
+                        runUnlocked(new Runnable() {
+                            @Override
+                            public void run() {
+                                onCharacteristicWrite(request.requestId, request.value);
+                            }
+                        });
+                    }
+                    executeNextRequest();
+                }
+                return;
+            }
+            if (request.writeDelayNanos > 0) {
+                writeNextPackage(characteristic, request, request.writeDelayNanos);
+                return;
+            }
+        }
+    }
+
+    //文件传输收到写入回调，按间隔回调进度
+    private void reportProgress(Request request) {
+        FileTransfer transfer = request.transfer;
+        if (transfer != null && request.chunks != null && transfer.onWritten()) {
+            onTransferProgress(request.requestId, transfer.getOffset(), transfer.getTotal(), transfer.getBytesPerSecond());
         }
     }
 
     private void handleWriteFailed(Request request) {
-        request.remainQueue = null;
-        handleFaildCallback(request.requestId, Request.RequestType.WRITE_CHARACTERISTIC, REQUEST_FAIL_TYPE_REQUEST_FAILED, request.value, true);        
+        request.chunks = null;
+        handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);        
     }
 
-    private boolean writeFail(BluetoothGattCharacteristic characteristic, byte[] value) {
+    //value可能是复用的缓冲区，writeCharacteristic返回后即可覆盖
+    private boolean writeFail(BluetoothGattCharacteristic characteristic, int writeType, byte[] value) {
         characteristic.setValue(value);
-        Integer writeType = config.getWriteType(characteristic.getService().getUuid(), characteristic.getUuid());
-        if (writeType != null && (writeType == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT || writeType == BluetoothGattCharacteristic.WRITE_TYPE_SIGNED ||
-                writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE)) {
+        if (writeType != -1) {
             characteristic.setWriteType(writeType);
         }
         return !bluetoothGatt.writeCharacteristic(characteristic);
     }
     
-    private void executeReadDescriptor(BluetoothGattCharacteristic characteristic, UUID descriptor, String requestId) {
-        BluetoothGattDescriptor gattDescriptor = characteristic.getDescriptor(descriptor);
+    private void executeReadDescriptor(BluetoothGattCharacteristic characteristic, Request request) {
+        BluetoothGattDescriptor gattDescriptor = characteristic.getDescriptor(request.descriptor);
         if (gattDescriptor != null) {
             if (!bluetoothGatt.readDescriptor(gattDescriptor)) {
-                handleFaildCallback(requestId, Request.RequestType.READ_DESCRIPTOR, REQUEST_FAIL_TYPE_REQUEST_FAILED, null, true);
+                handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
             }
         } else {
-            handleFaildCallback(requestId, Request.RequestType.READ_DESCRIPTOR, REQUEST_FAIL_TYPE_NULL_DESCRIPTOR, null, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_NULL_DESCRIPTOR, true);
         }
     }
     
-    private void executeIndicationOrNotification(BluetoothGattCharacteristic characteristic, String requestId, Request.RequestType requestType, byte[] value) {
+    private void executeIndicationOrNotification(BluetoothGattCharacteristic characteristic, Request request) {
         pendingCharacteristic = characteristic;
         BluetoothGattDescriptor gattDescriptor = pendingCharacteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
         if (gattDescriptor == null || !bluetoothGatt.readDescriptor(gattDescriptor)) {
-            handleFaildCallback(requestId, requestType, REQUEST_FAIL_TYPE_REQUEST_FAILED, value, true);
+            handleFaildCallback(request, REQUEST_FAIL_TYPE_REQUEST_FAILED, true);
         }
     }
 
@@ -7,8 +7,10 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -27,11 +29,14 @@ import org.greenrobot.eventbus.EventBus;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -39,6 +44,7 @@ import cn.zfs.blelib.callback.ConnectionStateChangeListener;
 import cn.zfs.blelib.callback.InitCallback;
 import cn.zfs.blelib.callback.ScanListener;
 import cn.zfs.blelib.event.Events;
+import cn.zfs.blelib.util.BleUtils;
 
 /**
  * 描述: 蓝牙操作
@@ -46,25 +52,85 @@ import cn.zfs.blelib.event.Events;
  * 作者: zengfansheng
  */
 public class Ble {
+    //停止扫描时等待批量结果回调的最长时间
+    private static final int FLUSH_TIMEOUT_MILLIS = 300;
+    //新会话需要扩大控制器过滤条件时，等待这段时间合并多次重启，如多个设备同时进入搜索重连
+    private static final int FILTER_RESTART_DELAY_MILLIS = 1000;
     private BluetoothAdapter bluetoothAdapter;
     private Map<String, Connection> connectionMap;
+    private Map<String, Connection> scanningConnectionMap;//等待搜索到设备再连接的连接
     private boolean isInited;
-    private boolean scanning;
+    private List<ScanSession> scanSessions;
+    private ScanSession defaultScanSession;//startScan开启的会话，结果回调给通过addScanListener添加的监听器
+    private volatile List<BleScanFilter> offloadedFilters;//已交给蓝牙控制器的过滤条件，为null时控制器不过滤
+    private boolean physicalStopPending;//已请求取出批量结果，等待结果回调后停止系统扫描
     private BluetoothLeScanner bleScanner;
     private ScanCallback scanCallback;
     private BluetoothAdapter.LeScanCallback leScanCallback;    
     private BleConfig bleConfig;
     private List<ScanListener> scanListeners;
+    private ScanResultDispatcher scanResultDispatcher;
+    private ScanScheduler scanScheduler;
+    private DeviceTable deviceTable = new DeviceTable(new DeviceTable.Callback() {
+        @Override
+        public void onEvicted(@NonNull String addr) {
+            deviceLostDetector.remove(addr);
+            forgetDevice(addr);
+        }
+    });
+    private RssiSmoother rssiSmoother = new RssiSmoother();
+    private DeviceLostDetector deviceLostDetector = new DeviceLostDetector(new DeviceLostDetector.Callback() {
+        @Override
+        public void onDeviceLost(@NonNull String addr, long lastSeen) {
+            //判定离开后又被扫描到时不移除，并重新检测，避免与扫描线程的更新竞争
+            DeviceTable.Entry entry = deviceTable.removeIfNotSeenSince(addr, lastSeen);
+            if (entry == null) {
+                int timeout = bleConfig.getDeviceLostTimeoutMillis();
+                if (timeout > 0 && deviceTable.get(addr) != null) {
+                    deviceLostDetector.touch(addr, timeout);
+                }
+                return;
+            }
+            forgetDevice(addr);
+            if (entry.device != null) {
+                println(Ble.class, Log.DEBUG, "device lost! [name: %s, mac: %s]", entry.device.name, addr);
+                publisher.post(Events.newDeviceLost(entry.device));
+            }
+        }
+    });
+    private volatile ScanRecorder scanRecorder;
     private Handler mainThreadHandler;
     private EventBus publisher;
     private BleLogger logger;
     private ExecutorService executorService;
+    private volatile LogEventRing logEventRing;
+    //每个扫描线程复用一个广播解析器
+    private ThreadLocal<AdvertisingData> advertisingData = new ThreadLocal<AdvertisingData>() {
+        @Override
+        protected AdvertisingData initialValue() {
+            return new AdvertisingData();
+        }
+    };
 
     private Ble() {
         bleConfig = new BleConfig();
         connectionMap = new ConcurrentHashMap<>();
+        scanningConnectionMap = new ConcurrentHashMap<>();
         mainThreadHandler = new Handler(Looper.getMainLooper());
         scanListeners = new ArrayList<>();
+        scanSessions = new CopyOnWriteArrayList<>();
+        scanResultDispatcher = new ScanResultDispatcher(mainThreadHandler, scanListeners);
+        scanScheduler = new ScanScheduler(mainThreadHandler, new ScanScheduler.Callback() {
+            @Override
+            public void onStartScan() {
+                startPhysicalScan();
+            }
+
+            @Override
+            public void onStopScan() {
+                stopPhysicalScan();
+            }
+        });
         publisher = EventBus.builder().build();
         logger = new BleLogger();
         executorService = Executors.newCachedThreadPool();
@@ -94,9 +160,138 @@ public class Ble {
         logger.setFilter(filter);
     }
 
+    /**
+     * 设置日志事件是否异步发布。开启后日志事件先进入容量为capacity的环形缓冲区，由后台线程发布，缓冲区满时丢弃最旧的日志
+     * @param capacity 缓冲区容量，小于等于0时关闭异步，在打日志的线程同步发布
+     */
+    public void setLogEventAsync(int capacity) {
+        logEventRing = capacity > 0 ? new LogEventRing(capacity, executorService) : null;
+    }
+
+    /**
+     * 日志内容是否有人需要，输出级别和订阅者都不需要时不生成日志内容
+     */
+    private boolean isLogRequired(int priority) {
+        return logger.accept(priority) || publisher.hasSubscriberForEvent(Events.LogChanged.class);
+    }
+
     public static void println(Class cls, int priority, @NonNull String msg) {
-        Ble.getInstance().postEvent(Events.newLogChanged(msg, BleLogger.getLevel(priority)));
-        Ble.getInstance().logger.println("blelib:" + cls.getSimpleName(), priority, msg);
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, msg);
+        }
+    }
+
+    /**
+     * 格式化输出日志，输出级别和订阅者都不需要时不格式化。byte[]类型的参数以16进制字符串输出。
+     * 参数不超过3个时使用固定参数的重载，不需要输出时不创建参数数组
+     * @param format 格式，同{@link String#format(Locale, String, Object...)}
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object... args) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, args, true));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object arg) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg}, false));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object arg1, Object arg2) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg1, arg2}, false));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object arg1, Object arg2, Object arg3) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg1, arg2, arg3}, false));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}，整数参数在需要输出时才装箱
+     */
+    public static void println(Class cls, int priority, @NonNull String format, long arg) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg}, false));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}，整数参数在需要输出时才装箱
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object arg1, long arg2) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg1, arg2}, false));
+        }
+    }
+
+    /**
+     * 同{@link #println(Class, int, String, Object...)}，整数参数在需要输出时才装箱
+     */
+    public static void println(Class cls, int priority, @NonNull String format, Object arg1, Object arg2, long arg3) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, format(format, new Object[]{arg1, arg2, arg3}, false));
+        }
+    }
+
+    /**
+     * byte[]类型的参数转为16进制字符串后格式化
+     * @param shared 参数数组是否来自调用方，是则转换前先复制，不修改调用方的数组
+     */
+    private static String format(String format, Object[] args, boolean shared) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof byte[]) {
+                if (shared) {
+                    args = args.clone();
+                    shared = false;
+                }
+                args[i] = BleUtils.bytesToHexString((byte[]) args[i]).trim();
+            }
+        }
+        return String.format(Locale.US, format, args);
+    }
+
+    /**
+     * 输出日志，输出级别和订阅者都不需要时不调用supplier生成日志内容
+     */
+    public static void println(Class cls, int priority, @NonNull BleLogger.MessageSupplier supplier) {
+        Ble ble = Ble.getInstance();
+        if (ble.isLogRequired(priority)) {
+            ble.dispatchLog(cls, priority, supplier.get());
+        }
+    }
+
+    private void dispatchLog(Class cls, int priority, @NonNull String msg) {
+        int level = BleLogger.getLevel(priority);
+        if (publisher.hasSubscriberForEvent(Events.LogChanged.class)) {
+            LogEventRing ring = logEventRing;
+            if (ring == null) {
+                publisher.post(Events.newLogChanged(msg, level));
+            } else {
+                ring.offer(msg, level);
+            }
+        }
+        logger.println("blelib:" + cls.getSimpleName(), priority, msg);
     }
     
     public BleConfig getBleConfig() {
@@ -147,6 +342,7 @@ public class Ble {
         if (!isInited) {
             IntentFilter filter = new IntentFilter();
             filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+            filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
             context.registerReceiver(receiver, filter);
         }
         isInited = true;        
@@ -165,8 +361,11 @@ public class Ble {
      */
     public void release(@NonNull Context context) {
         if (isInited) {
-            stopScan();
+            releaseAllScanSessions();
             scanListeners.clear();
+            deviceTable.clear();
+            deviceLostDetector.clear();
+            rssiSmoother.clear();
             releaseAllConnections();//释放所有连接
             context.getApplicationContext().unregisterReceiver(receiver);//取消注册蓝牙状态广播接收者
             isInited = false;
@@ -180,8 +379,7 @@ public class Ble {
                 if (bluetoothAdapter != null) {
                     publisher.post(Events.newBluetoothStateChanged(bluetoothAdapter.getState()));
                     if (bluetoothAdapter.getState() == BluetoothAdapter.STATE_OFF) {//蓝牙关闭了
-                        scanning = false;
-                        handleScanCallback(false, null, -1, "");
+                        releaseAllScanSessions();
                         //主动断开
                         for (Connection connection : connectionMap.values()) {
                             connection.disconnect();
@@ -194,6 +392,14 @@ public class Ble {
                         }
                     }
                 }
+            } else if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(intent.getAction())) {//配对状态变化，更新设备表中的设备
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device != null) {
+                    DeviceTable.Entry entry = deviceTable.get(device.getAddress());
+                    if (entry != null && entry.device != null) {
+                        entry.device.bondState = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE);
+                    }
+                }
             }
         }
     };
@@ -279,11 +485,18 @@ public class Ble {
     }
 
     /**
-     * 是否正在扫描
+     * 是否正在扫描，{@link #startScan(Context)}开启的扫描或{@link #acquireScanSession(Context, List, ScanListener)}获取的会话未释放即为扫描中，
+     * 不包括库内搜索重连的会话
      */
     public boolean isScanning() {
-        return scanning;
+        for (ScanSession session : scanSessions) {
+            if (!session.isInternal()) {
+                return true;
+            }
+        }
+        return false;
     }
+
     
     public BluetoothAdapter getBluetoothAdapter() {
         return bluetoothAdapter;
@@ -294,57 +507,303 @@ public class Ble {
     }
     
     /**
-     * 搜索蓝牙设备
+     * 搜索蓝牙设备，结果回调给通过{@link #addScanListener(ScanListener)}添加的监听器，过滤条件为{@link BleConfig#getScanFilters()}
      * @param context 用来检查app是否拥有相应权限
      */
     public void startScan(@NonNull Context context) {        
         if (!isLocationEnabled(context)) {
-            handleScanCallback(false, null, ScanListener.ERROR_LOCATION_SERVICE_CLOSED, "位置服务未开启，无法搜索蓝牙设备");
+            handleScanCallback(false, ScanListener.ERROR_LOCATION_SERVICE_CLOSED, "位置服务未开启，无法搜索蓝牙设备");
             return;
         } else if (noLocationPermission(context)) {
-            handleScanCallback(false, null, ScanListener.ERROR_LACK_LOCATION_PERMISSION, "缺少定位权限，无法搜索蓝牙设备");
+            handleScanCallback(false, ScanListener.ERROR_LACK_LOCATION_PERMISSION, "缺少定位权限，无法搜索蓝牙设备");
             return;
         }
+        ScanSession session;
         synchronized (this) {
-            if (!isInited || bluetoothAdapter == null || !bluetoothAdapter.isEnabled() || scanning) {
+            if (!isInited || bluetoothAdapter == null || !bluetoothAdapter.isEnabled() || defaultScanSession != null) {
                 return;
             }
-            scanning = true;
+            scanResultDispatcher.clear();
+            session = new ScanSession(bleConfig.getScanFilters(), null, scanResultDispatcher);
+            defaultScanSession = session;
         }        
-        handleScanCallback(true, null, -1, "");
+        handleScanCallback(true, -1, "");
         if (bleConfig.isAcceptSysConnectedDevice()) {
             getSystemConnectedDevices();
         }
+        addScanSession(session);
+        mainThreadHandler.postDelayed(stopScanRunnable, bleConfig.getScanPeriodMillis());
+    }
+
+    /**
+     * 获取扫描会话。所有会话共用一次系统扫描，不会打断其他会话的扫描，不使用后需调用{@link ScanSession#release()}
+     * @param context 用来检查app是否拥有相应权限
+     * @param filters 过滤条件，满足其中一个即可，为null时接收所有设备
+     * @param listener 会话自己的扫描回调，可为null
+     * @return 获取失败返回null
+     */
+    public ScanSession acquireScanSession(@NonNull Context context, List<BleScanFilter> filters, final ScanListener listener) {
+        if (!isLocationEnabled(context)) {
+            notifyScanError(listener, ScanListener.ERROR_LOCATION_SERVICE_CLOSED, "位置服务未开启，无法搜索蓝牙设备");
+            return null;
+        } else if (noLocationPermission(context)) {
+            notifyScanError(listener, ScanListener.ERROR_LACK_LOCATION_PERMISSION, "缺少定位权限，无法搜索蓝牙设备");
+            return null;
+        }
+        if (!isInited || bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            return null;
+        }
+        ScanSession session = acquireScanSession(filters, listener, false);
+        if (listener != null) {
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onScanStart();
+                }
+            });
+        }
+        return session;
+    }
+
+    /**
+     * 获取扫描会话，不检查权限，供库内使用
+     * @param internal 是否库内部使用的会话，内部会话不影响{@link #isScanning()}
+     */
+    ScanSession acquireScanSession(List<BleScanFilter> filters, ScanListener listener, boolean internal) {
+        ScanResultDispatcher dispatcher = listener == null ? null : new ScanResultDispatcher(mainThreadHandler, Collections.singletonList(listener));
+        ScanSession session = new ScanSession(filters, listener, dispatcher, internal);
+        addScanSession(session);
+        return session;
+    }
+
+    private synchronized void addScanSession(ScanSession session) {
+        //新会话的回调记录为空，已在设备表中的设备再次扫描到时会回调给它
+        scanSessions.add(session);
+        if (scanSessions.size() == 1) {
+            //第一个会话，开启扫描。按扫描窗口和暂停时长调度真正的扫描
+            scanScheduler.start(bleConfig.getScanWindowMillis(), bleConfig.getScanPauseMillis(), bleConfig.isAdaptiveScanPause());
+        } else if (!isCoveredByOffloadedFilters(session)) {
+            //控制器过滤条件需要扩大，合并短时间内的多次重启。会话减少时不重启，多收到的广播在库内过滤
+            mainThreadHandler.removeCallbacks(filterRestartRunnable);
+            mainThreadHandler.postDelayed(filterRestartRunnable, FILTER_RESTART_DELAY_MILLIS);
+        }
+    }
+
+    //控制器不过滤，或新会话的每个过滤条件都被控制器中的某个条件包含时，不需要重启
+    private boolean isCoveredByOffloadedFilters(ScanSession session) {
+        List<BleScanFilter> offloaded = offloadedFilters;
+        if (offloaded == null) {
+            return true;
+        }
+        if (session.getFilters().isEmpty()) {
+            return false;
+        }
+        for (BleScanFilter filter : session.getFilters()) {
+            boolean covered = false;
+            for (BleScanFilter f : offloaded) {
+                if (f.covers(filter)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Runnable filterRestartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (Ble.this) {
+                if (!scanSessions.isEmpty() && !isCoveredByOffloadedFilters()) {
+                    scanScheduler.restart();
+                }
+            }
+        }
+    };
+
+    //所有会话是否都被控制器中的过滤条件包含，等待期间可能已按新条件重启过
+    private boolean isCoveredByOffloadedFilters() {
+        for (ScanSession session : scanSessions) {
+            if (!isCoveredByOffloadedFilters(session)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 释放扫描会话，所有会话都释放后停止扫描
+     */
+    public void releaseScanSession(@NonNull ScanSession session) {
+        synchronized (this) {
+            if (!scanSessions.remove(session)) {
+                return;
+            }
+            session.setReleased();
+            if (scanSessions.isEmpty()) {
+                mainThreadHandler.removeCallbacks(filterRestartRunnable);
+                scanScheduler.stop();
+                //不扫描时无法判断设备是否离开，下次扫描到时重新检测
+                deviceLostDetector.clear();
+            }
+        }
+        ScanResultDispatcher dispatcher = session.getDispatcher();
+        if (dispatcher != null && dispatcher != scanResultDispatcher) {
+            dispatcher.flushNow();
+            final ScanListener listener = session.getListener();
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onScanStop();
+                }
+            });
+        }
+    }
+
+    //释放所有会话，停止扫描
+    private void releaseAllScanSessions() {
+        ScanSession session;
+        synchronized (this) {
+            session = defaultScanSession;
+            defaultScanSession = null;
+        }
+        if (session != null) {
+            mainThreadHandler.removeCallbacks(stopScanRunnable);
+            releaseScanSession(session);
+            handleScanCallback(false, -1, "");
+        }
+        //搜索重连的连接持有的会话也在下面释放，连接不再等待搜索结果
+        for (Connection connection : scanningConnectionMap.values()) {
+            connection.scanSession = null;
+        }
+        scanningConnectionMap.clear();
+        for (ScanSession s : scanSessions) {
+            releaseScanSession(s);
+        }
+    }
+
+    private void notifyScanError(final ScanListener listener, final int errorCode, final String errorMsg) {
+        if (listener != null) {
+            mainThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onScanError(errorCode, errorMsg);
+                }
+            });
+        }
+    }
+
+    //开启系统扫描
+    private void startPhysicalScan() {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            return;
+        }
         //如果是高版本使用新的搜索方法
         if (bleConfig.isUseBluetoothLeScanner() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            //上次停止还在等待批量结果，先停止
+            finishPendingStop();
             if (bleScanner == null) {
                 bleScanner = bluetoothAdapter.getBluetoothLeScanner();
             }
             if (scanCallback == null) {
                 scanCallback = new MyScanCallback();
             }
-            if (bleConfig.getScanSettings() == null) {
+            List<BleScanFilter> union = getOffloadFilters();
+            offloadedFilters = union;
+            List<ScanFilter> filters = null;
+            if (union != null) {
+                filters = new ArrayList<>(union.size());
+                for (BleScanFilter filter : union) {
+                    filters.add(filter.toScanFilter());
+                }
+            }
+            if (bleConfig.getScanSettings() == null && filters == null) {
                 bleScanner.startScan(scanCallback);
             } else {
-                bleScanner.startScan(null, bleConfig.getScanSettings(), scanCallback);
+                ScanSettings settings = bleConfig.getScanSettings();
+                bleScanner.startScan(filters, settings == null ? new ScanSettings.Builder().build() : settings, scanCallback);
             }            
         } else {
+            offloadedFilters = null;
             if (leScanCallback == null) {
                 leScanCallback = new MyLeScanCallback();
             }
             bluetoothAdapter.startLeScan(leScanCallback);
         }
-        mainThreadHandler.postDelayed(stopScanRunnable, bleConfig.getScanPeriodMillis());
     }
 
-    private void handleScanCallback(final boolean start, final Device device, final int errorCode, final String errorMsg) {
+    //所有会话过滤条件的并集，有会话不过滤时返回null
+    private List<BleScanFilter> getOffloadFilters() {
+        List<BleScanFilter> filters = new ArrayList<>();
+        for (ScanSession session : scanSessions) {
+            if (session.getFilters().isEmpty()) {
+                return null;
+            }
+            filters.addAll(session.getFilters());
+        }
+        return filters.isEmpty() ? null : filters;
+    }
+
+    //停止系统扫描
+    private void stopPhysicalScan() {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            if (bleScanner != null && scanCallback != null) {
+                ScanSettings settings = bleConfig.getScanSettings();
+                if (settings != null && settings.getReportDelayMillis() > 0) {
+                    //取出控制器中缓存的批量结果，结果异步回调，收到后再停止，以免停止时丢失。超时未回调也停止
+                    synchronized (this) {
+                        physicalStopPending = true;
+                    }
+                    bleScanner.flushPendingScanResults(scanCallback);
+                    mainThreadHandler.postDelayed(pendingStopRunnable, FLUSH_TIMEOUT_MILLIS);
+                } else {
+                    bleScanner.stopScan(scanCallback);
+                }
+            }
+        }
+        if (leScanCallback != null) {
+            bluetoothAdapter.stopLeScan(leScanCallback);
+        }
+    }
+
+    //完成等待批量结果的停止
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void finishPendingStop() {
+        synchronized (this) {
+            if (!physicalStopPending) {
+                return;
+            }
+            physicalStopPending = false;
+        }
+        mainThreadHandler.removeCallbacks(pendingStopRunnable);
+        if (bleScanner != null && scanCallback != null && bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
+            bleScanner.stopScan(scanCallback);
+        }
+    }
+
+    private Runnable pendingStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            finishPendingStop();
+        }
+    };
+
+    private void handleScanCallback(final boolean start, final int errorCode, final String errorMsg) {
+        if (!start) {
+            //停止或出错前先把已收集的结果投递出去
+            scanResultDispatcher.flushNow();
+        }
         mainThreadHandler.post(new Runnable() {
             @Override
             public void run() {
                 for (ScanListener listener : scanListeners) {
-                    if (device != null) {
-                        listener.onScanResult(device);
-                    } else if (start) {
+                    if (start) {
                         listener.onScanStart();
                     } else if (errorCode >= 0) {
                         listener.onScanError(errorCode, errorMsg);
@@ -391,22 +850,19 @@ public class Ble {
      * 停止搜索蓝牙设备
      */
     public void stopScan() {
-        if (!isInited || !scanning) {
-            return;
+        ScanSession session;
+        synchronized (this) {
+            if (!isInited || defaultScanSession == null) {
+                return;
+            }
+            session = defaultScanSession;
+            defaultScanSession = null;
         }
-        scanning = false;
         mainThreadHandler.removeCallbacks(stopScanRunnable);
+        releaseScanSession(session);
         if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled())
             return;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            if (bleScanner != null && scanCallback != null) {
-                bleScanner.stopScan(scanCallback);
-            }
-        }
-        if (leScanCallback != null) {
-            bluetoothAdapter.stopLeScan(leScanCallback);
-        }
-        handleScanCallback(false, null, -1, "");
+        handleScanCallback(false, -1, "");
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -416,6 +872,14 @@ public class Ble {
             ScanRecord scanRecord = result.getScanRecord();
             parseScanResult(result.getDevice(), result.getRssi(), scanRecord == null ? null : scanRecord.getBytes());
         }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            //设置了ScanSettings.setReportDelay后，结果由控制器批量上报
+            parseScanResults(results);
+            //停止扫描前取出的最后一批结果已收到
+            finishPendingStop();
+        }
     }
 
     private class MyLeScanCallback implements BluetoothAdapter.LeScanCallback {
@@ -432,31 +896,203 @@ public class Ble {
      * @param scanRecord 广播内容
      */
     public void parseScanResult(@NonNull BluetoothDevice device, int rssi, byte[] scanRecord) {
-        for (Connection connection : connectionMap.values()) {
-            connection.onScanResult(device.getAddress());
+        handleScanResult(device, rssi, scanRecord);
+    }
+
+    /**
+     * 批量解析广播字段，处理后的结果作为一批回调
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public void parseScanResults(@NonNull List<ScanResult> results) {
+        for (ScanResult result : results) {
+            ScanRecord scanRecord = result.getScanRecord();
+            handleScanResult(result.getDevice(), result.getRssi(), scanRecord == null ? null : scanRecord.getBytes());
+        }
+        //不等待帧间隔，整批立即回调
+        for (ScanSession session : scanSessions) {
+            if (session.getDispatcher() != null) {
+                session.getDispatcher().flushNow();
+            }
         }
-        String deviceName = TextUtils.isEmpty(device.getName()) ? "Unknown Device" : device.getName();
-        //生成
-        Device dev = null;
-        if (bleConfig.getScanHandler() != null) {
-            //只在指定的过滤器通知
-            dev = bleConfig.getScanHandler().handle(device, scanRecord);
+    }
+
+    //处理单条广播，分发给满足过滤条件的会话
+    private void handleScanResult(@NonNull BluetoothDevice device, int rssi, byte[] scanRecord) {
+        ScanRecorder recorder = scanRecorder;
+        if (recorder != null) {
+            recorder.record(device.getAddress(), rssi, scanRecord);
+        }
+        Connection scanningConnection = scanningConnectionMap.get(device.getAddress());
+        if (scanningConnection != null) {
+            scanningConnection.onScanResult(device.getAddress());
+        }
+        AdvertisingData advData = advertisingData.get().parse(scanRecord);
+        //没有需要结果的会话时不生成设备
+        if (!hasMatchedSession(device, advData)) {
+            return;
         }
-        if (dev != null || bleConfig.getScanHandler() == null) {
+        String addr = device.getAddress();
+        long lastSeen = 0;
+        if (bleConfig.getDeviceLostTimeoutMillis() > 0) {
+            lastSeen = deviceLostDetector.touch(addr, bleConfig.getDeviceLostTimeoutMillis());
+        }
+        DeviceTable.Entry entry = deviceTable.get(addr, lastSeen);
+        Device dev;
+        if (entry != null && Arrays.equals(entry.scanRecord, scanRecord)) {
+            //广播内容未变，原地更新信号强度，不重新生成设备
+            dev = entry.device;
+            if (dev == null) {//同样的广播已被过滤
+                return;
+            }
+            updateRssi(dev, rssi, advData);
+            scanScheduler.onScanResult();
+        } else {
+            Device old = entry == null ? null : entry.device;
+            //优先使用系统缓存的名称，其次是广播中的名称，都没有时沿用之前的名称
+            String deviceName = device.getName();
+            if (TextUtils.isEmpty(deviceName)) {
+                deviceName = advData.getName();
+            }
+            if (TextUtils.isEmpty(deviceName)) {
+                deviceName = old != null ? old.name : "Unknown Device";
+            }
+            //生成
+            dev = null;
+            if (bleConfig.getScanHandler() != null) {
+                //只在指定的过滤器通知
+                dev = bleConfig.getScanHandler().handle(device, scanRecord, advData);
+            }
+            if (dev != null || bleConfig.getScanHandler() == null) {
+                if (dev == null) {
+                    dev = new Device();
+                }
+                dev.name = TextUtils.isEmpty(dev.name) ? deviceName : dev.name;
+                dev.addr = addr;
+                //配对状态需要跨进程获取，只在新设备时查询，之后通过配对状态广播更新
+                dev.bondState = old != null ? old.bondState : device.getBondState();
+                dev.originalDevice = device;
+                dev.scanRecord = scanRecord;
+            }
+            deviceTable.put(addr, dev, scanRecord, lastSeen, bleConfig.getMaxScannedDevices());
             if (dev == null) {
-                dev = new Device();
+                return;
+            }
+            updateRssi(dev, rssi, advData);
+            scanScheduler.onScanResult();
+            println(Ble.class, Log.DEBUG, "found device! [name: %s, mac: %s]", dev.name, addr);
+        }
+        //扫描结果按帧合并后再投递到主线程。投递的是快照，设备表中的设备继续在扫描线程原地更新
+        Device snapshot = null;
+        int threshold = bleConfig.getRssiChangeThreshold();
+        for (ScanSession session : scanSessions) {
+            if (session.getDispatcher() != null && session.matches(device, advData) && session.shouldNotify(dev, rssi, threshold)) {
+                if (snapshot == null) {
+                    snapshot = dev.clone();
+                }
+                session.getDispatcher().dispatch(snapshot, bleConfig.getScanResultFrameMillis());
             }
-            dev.name = TextUtils.isEmpty(dev.name) ? deviceName : dev.name;
-            dev.addr = device.getAddress();
-            dev.rssi = rssi;
-            dev.bondState = device.getBondState();
-            dev.originalDevice = device;
-            dev.scanRecord = scanRecord;
-            handleScanCallback(false, dev, -1, "");
         }
-        println(Ble.class, Log.DEBUG, String.format(Locale.US, "found device! [name: %s, mac: %s]", deviceName, device.getAddress()));
+    }
+
+    //设备离开或被移出设备表，清除平滑值和各会话的回调记录
+    private void forgetDevice(@NonNull String addr) {
+        rssiSmoother.remove(addr);
+        for (ScanSession session : scanSessions) {
+            session.removeNotified(addr);
+        }
+    }
+
+    /**
+     * 更新设备的信号强度，设置了平滑参数时同时更新平滑值和估算距离
+     * @param advData 广播字段，用于获取发射功率，可为null
+     */
+    void updateRssi(@NonNull Device device, int rssi, AdvertisingData advData) {
+        device.rssi = rssi;
+        RssiFilter filter = bleConfig.getRssiFilter();
+        if (filter == null) {
+            device.smoothedRssi = rssi;
+            return;
+        }
+        float smoothed = rssiSmoother.update(device.addr, rssi, filter);
+        device.smoothedRssi = smoothed;
+        int measuredPower = device.measuredPower;
+        if (measuredPower == 0 && advData != null) {
+            int txPower = advData.getTxPowerLevel();
+            //广播中的发射功率是0米处的值，1米处约衰减41dBm
+            measuredPower = txPower == Integer.MIN_VALUE ? 0 : txPower - 41;
+        }
+        device.distance = filter.estimateDistance(smoothed, measuredPower == 0 ? filter.getMeasuredPower() : measuredPower);
+    }
+
+    private boolean hasMatchedSession(BluetoothDevice device, AdvertisingData advData) {
+        for (ScanSession session : scanSessions) {
+            if (session.getDispatcher() != null && session.matches(device, advData)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 设置扫描结果录制器，所有扫描结果在处理前先录制下来，可用{@link ScanReplayer}回放
+     * @param recorder 为null时停止录制，录制器需由调用方关闭
+     */
+    public void setScanRecorder(ScanRecorder recorder) {
+        scanRecorder = recorder;
+    }
+
+    /**
+     * 获取扫描到的设备
+     * @param addr 设备地址
+     * @return 未扫描到或被过滤时返回null
+     */
+    public Device getScannedDevice(String addr) {
+        DeviceTable.Entry entry = addr == null ? null : deviceTable.get(addr);
+        return entry == null ? null : entry.device;
+    }
+
+    /**
+     * 获取所有扫描到的设备，设备信息随扫描在扫描线程原地更新，跨线程使用时请先{@link Device#clone()}
+     */
+    @NonNull
+    public List<Device> getScannedDevices() {
+        return deviceTable.getDevices();
+    }
+
+    /**
+     * 清空扫描到的设备
+     */
+    public void clearScannedDevices() {
+        deviceTable.clear();
+        deviceLostDetector.clear();
+        rssiSmoother.clear();
+        for (ScanSession session : scanSessions) {
+            session.clearNotified();
+        }
     }
     
+    /**
+     * 连接进入搜索重连状态，获取只搜索该地址的扫描会话，搜索到时通知连接
+     */
+    void addScanningConnection(@NonNull String addr, @NonNull Connection connection) {
+        scanningConnectionMap.put(addr, connection);
+        if (connection.scanSession == null || connection.scanSession.isReleased()) {
+            connection.scanSession = acquireScanSession(Collections.singletonList(BleScanFilter.newInstance().setDeviceAddress(addr)), null, true);
+        }
+    }
+
+    /**
+     * 连接离开搜索重连状态，释放其扫描会话
+     */
+    void removeScanningConnection(@NonNull String addr, @NonNull Connection connection) {
+        scanningConnectionMap.remove(addr, connection);
+        ScanSession session = connection.scanSession;
+        if (session != null) {
+            connection.scanSession = null;
+            releaseScanSession(session);
+        }
+    }
+
     /**
      * 建立连接
      * @param config 连接配置
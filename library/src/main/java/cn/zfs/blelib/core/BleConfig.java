@@ -1,6 +1,10 @@
 package cn.zfs.blelib.core;
 
 import android.bluetooth.le.ScanSettings;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 描述:
@@ -11,9 +15,18 @@ public class BleConfig {
     private IScanHandler scanHandler;
     private IBondController bondController;
     private int scanPeriodMillis = 10000;
+    private int scanWindowMillis = 5000;
+    private int scanPauseMillis;
+    private boolean adaptiveScanPause;
     private boolean useBluetoothLeScanner = true;
     private boolean acceptSysConnectedDevice;
     private ScanSettings scanSettings;
+    private int scanResultFrameMillis = 100;
+    private List<BleScanFilter> scanFilters = new ArrayList<>();
+    private int rssiChangeThreshold = 5;
+    private int deviceLostTimeoutMillis;
+    private int maxScannedDevices = 512;
+    private RssiFilter rssiFilter;
 
     /**
      * 设置扫描过滤器
@@ -43,6 +56,40 @@ public class BleConfig {
         return this;
     }
 
+    public int getScanWindowMillis() {
+        return scanWindowMillis;
+    }
+
+    public int getScanPauseMillis() {
+        return scanPauseMillis;
+    }
+
+    /**
+     * 设置扫描周期内的占空比，扫描windowMillis后暂停pauseMillis，交替进行。默认连续扫描
+     *
+     * @param windowMillis 每次扫描的时长，毫秒
+     * @param pauseMillis  暂停时长，毫秒，小于等于0时连续扫描
+     */
+    public BleConfig setScanDutyCycle(int windowMillis, int pauseMillis) {
+        if (windowMillis > 0) {
+            this.scanWindowMillis = windowMillis;
+        }
+        this.scanPauseMillis = pauseMillis;
+        return this;
+    }
+
+    public boolean isAdaptiveScanPause() {
+        return adaptiveScanPause;
+    }
+
+    /**
+     * 是否根据扫描结果调整暂停时长。一次扫描没有结果时暂停时长逐步加倍（最多为设置值的8倍），有结果后恢复
+     */
+    public BleConfig setAdaptiveScanPause(boolean adaptiveScanPause) {
+        this.adaptiveScanPause = adaptiveScanPause;
+        return this;
+    }
+
     public boolean isUseBluetoothLeScanner() {
         return useBluetoothLeScanner;
     }
@@ -81,10 +128,110 @@ public class BleConfig {
     }
 
     /**
-     * 扫描设置
+     * 扫描设置。设置了{@link ScanSettings.Builder#setReportDelay(long)}时，结果由控制器批量上报，并作为一批回调。停止扫描时先取出控制器中缓存的结果，收到后再停止
      */
     public BleConfig setScanSettings(ScanSettings scanSettings) {
         this.scanSettings = scanSettings;
         return this;
     }
+
+    public int getScanResultFrameMillis() {
+        return scanResultFrameMillis;
+    }
+
+    /**
+     * 设置扫描结果回调的帧间隔，一帧内搜索到的设备按地址合并后一次性回调，默认100毫秒
+     *
+     * @param scanResultFrameMillis 毫秒，小于等于0时每个结果尽快回调
+     */
+    public BleConfig setScanResultFrameMillis(int scanResultFrameMillis) {
+        this.scanResultFrameMillis = scanResultFrameMillis;
+        return this;
+    }
+
+    public List<BleScanFilter> getScanFilters() {
+        return scanFilters;
+    }
+
+    /**
+     * 添加扫描过滤条件，多个过滤器之间满足其一即可，作用于{@link Ble#startScan(android.content.Context)}开启的扫描。
+     * 使用BluetoothLeScanner时由蓝牙控制器过滤，不满足条件的广播不会上报到应用
+     */
+    public BleConfig addScanFilter(@NonNull BleScanFilter filter) {
+        if (!scanFilters.contains(filter)) {
+            scanFilters.add(filter);
+        }
+        return this;
+    }
+
+    /**
+     * 替换扫描过滤条件
+     *
+     * @param filters 为null时清空
+     */
+    public BleConfig setScanFilters(List<BleScanFilter> filters) {
+        scanFilters = new ArrayList<>();
+        if (filters != null) {
+            scanFilters.addAll(filters);
+        }
+        return this;
+    }
+
+    public int getRssiChangeThreshold() {
+        return rssiChangeThreshold;
+    }
+
+    /**
+     * 已扫描到的设备广播内容不变时，信号强度变化达到此阈值才再次回调，默认5
+     *
+     * @param rssiChangeThreshold 信号强度变化阈值，dBm。小于等于0时每次扫描到都回调
+     */
+    public BleConfig setRssiChangeThreshold(int rssiChangeThreshold) {
+        this.rssiChangeThreshold = rssiChangeThreshold;
+        return this;
+    }
+
+    public int getDeviceLostTimeoutMillis() {
+        return deviceLostTimeoutMillis;
+    }
+
+    /**
+     * 已扫描到的设备超过此时长未再被扫描到时，从设备表中移除并发布{@link cn.zfs.blelib.event.Events.DeviceLost}事件。
+     * 使用扫描暂停时，应大于扫描暂停时长
+     *
+     * @param deviceLostTimeoutMillis 毫秒，小于等于0时不检测，默认不检测
+     */
+    public BleConfig setDeviceLostTimeoutMillis(int deviceLostTimeoutMillis) {
+        this.deviceLostTimeoutMillis = deviceLostTimeoutMillis;
+        return this;
+    }
+
+    public int getMaxScannedDevices() {
+        return maxScannedDevices;
+    }
+
+    /**
+     * 设备表最多保存的设备数，超过时移除最久未扫描到的设备，移除的设备再次扫描到时重新回调。默认512
+     *
+     * @param maxScannedDevices 小于等于0时不限，不检测设备离开时设备表会一直增长
+     */
+    public BleConfig setMaxScannedDevices(int maxScannedDevices) {
+        this.maxScannedDevices = maxScannedDevices;
+        return this;
+    }
+
+    public RssiFilter getRssiFilter() {
+        return rssiFilter;
+    }
+
+    /**
+     * 设置信号强度平滑参数，扫描结果和读取到的信号强度都经过平滑，结果保存在{@link Device#smoothedRssi}，
+     * 同时估算{@link Device#distance}
+     *
+     * @param rssiFilter 为null时不平滑，默认不平滑
+     */
+    public BleConfig setRssiFilter(RssiFilter rssiFilter) {
+        this.rssiFilter = rssiFilter;
+        return this;
+    }
 }
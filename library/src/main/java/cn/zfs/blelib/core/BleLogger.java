@@ -21,6 +21,14 @@ public class BleLogger {
         boolean accept(@NonNull String log);
     }
 
+    /**
+     * 日志内容提供者，需要输出时才调用
+     */
+    public interface MessageSupplier {
+        @NonNull
+        String get();
+    }
+
     /**
      * 控制输出级别<br>{@link #NONE}, {@link #VERBOSE}, {@link #DEBUG}, {@link #INFO}, {@link #WARN}, {@link #ERROR}
      */
@@ -35,7 +43,7 @@ public class BleLogger {
         this.filter = filter;
     }
     
-    private boolean accept(int priority) {
+    boolean accept(int priority) {
         int level = getLevel(priority);
         return (printLevel & NONE) != NONE && (printLevel & level) == level;
     }
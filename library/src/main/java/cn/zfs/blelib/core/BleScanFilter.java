@@ -0,0 +1,229 @@
+package cn.zfs.blelib.core;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanFilter;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * 描述: 扫描过滤条件。使用BluetoothLeScanner时转换为{@link ScanFilter}交由蓝牙控制器过滤，
+ * 否则在库内按相同规则匹配。同一个过滤器内的条件需同时满足
+ */
+public class BleScanFilter {
+    private String deviceName;
+    private String deviceAddress;
+    private UUID serviceUuid;
+    private UUID serviceUuidMask;
+    private int manufacturerId = -1;
+    private byte[] manufacturerData;
+    private byte[] manufacturerDataMask;
+
+    private BleScanFilter() {
+
+    }
+
+    public static BleScanFilter newInstance() {
+        return new BleScanFilter();
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * 按广播中的设备名称过滤，需完全相同
+     */
+    public BleScanFilter setDeviceName(String deviceName) {
+        this.deviceName = deviceName;
+        return this;
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    /**
+     * 按设备地址过滤
+     * @param deviceAddress 大写的MAC地址，如"00:11:22:AA:BB:CC"
+     */
+    public BleScanFilter setDeviceAddress(String deviceAddress) {
+        if (deviceAddress != null && !BluetoothAdapter.checkBluetoothAddress(deviceAddress)) {
+            throw new IllegalArgumentException("invalid device address " + deviceAddress);
+        }
+        this.deviceAddress = deviceAddress;
+        return this;
+    }
+
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    public UUID getServiceUuidMask() {
+        return serviceUuidMask;
+    }
+
+    /**
+     * 按广播中的服务UUID过滤
+     */
+    public BleScanFilter setServiceUuid(UUID serviceUuid) {
+        return setServiceUuid(serviceUuid, null);
+    }
+
+    /**
+     * 按广播中的服务UUID过滤
+     * @param serviceUuidMask 掩码，为1的位参与比较。null时所有位都参与比较
+     */
+    public BleScanFilter setServiceUuid(UUID serviceUuid, UUID serviceUuidMask) {
+        if (serviceUuid == null && serviceUuidMask != null) {
+            throw new IllegalArgumentException("uuid is null while mask is not null!");
+        }
+        this.serviceUuid = serviceUuid;
+        this.serviceUuidMask = serviceUuidMask;
+        return this;
+    }
+
+    public int getManufacturerId() {
+        return manufacturerId;
+    }
+
+    public byte[] getManufacturerData() {
+        return manufacturerData;
+    }
+
+    public byte[] getManufacturerDataMask() {
+        return manufacturerDataMask;
+    }
+
+    /**
+     * 按厂商自定义数据过滤
+     * @param manufacturerId 厂商ID
+     * @param manufacturerData 厂商数据开头部分，不含厂商ID，可为null
+     */
+    public BleScanFilter setManufacturerData(int manufacturerId, byte[] manufacturerData) {
+        return setManufacturerData(manufacturerId, manufacturerData, null);
+    }
+
+    /**
+     * 按厂商自定义数据过滤
+     * @param manufacturerId 厂商ID
+     * @param manufacturerData 厂商数据开头部分，不含厂商ID，可为null
+     * @param manufacturerDataMask 掩码，长度需与manufacturerData相同，为1的位参与比较。null时所有位都参与比较
+     */
+    public BleScanFilter setManufacturerData(int manufacturerId, byte[] manufacturerData, byte[] manufacturerDataMask) {
+        if (manufacturerData == null && manufacturerDataMask != null) {
+            throw new IllegalArgumentException("manufacturerData is null while manufacturerDataMask is not null");
+        }
+        if (manufacturerId < 0) {
+            throw new IllegalArgumentException("invalid manufacture id");
+        }
+        if (manufacturerData != null && manufacturerDataMask != null && manufacturerData.length != manufacturerDataMask.length) {
+            throw new IllegalArgumentException("size mismatch for manufacturerData and manufacturerDataMask");
+        }
+        this.manufacturerId = manufacturerId;
+        this.manufacturerData = manufacturerData;
+        this.manufacturerDataMask = manufacturerDataMask;
+        return this;
+    }
+
+    /**
+     * 满足other的设备是否一定满足此过滤器，即此过滤器的每个条件other中都有相同的条件
+     */
+    boolean covers(@NonNull BleScanFilter other) {
+        if (deviceName != null && !deviceName.equals(other.deviceName)) {
+            return false;
+        }
+        if (deviceAddress != null && !deviceAddress.equalsIgnoreCase(other.deviceAddress)) {
+            return false;
+        }
+        if (serviceUuid != null && (!serviceUuid.equals(other.serviceUuid) || !isEqual(serviceUuidMask, other.serviceUuidMask))) {
+            return false;
+        }
+        return manufacturerId < 0 || (manufacturerId == other.manufacturerId && Arrays.equals(manufacturerData, other.manufacturerData) &&
+                Arrays.equals(manufacturerDataMask, other.manufacturerDataMask));
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * 转换成系统的扫描过滤器，交给蓝牙控制器过滤
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    ScanFilter toScanFilter() {
+        ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (deviceName != null) {
+            builder.setDeviceName(deviceName);
+        }
+        if (deviceAddress != null) {
+            builder.setDeviceAddress(deviceAddress);
+        }
+        if (serviceUuid != null) {
+            builder.setServiceUuid(new ParcelUuid(serviceUuid), serviceUuidMask == null ? null : new ParcelUuid(serviceUuidMask));
+        }
+        if (manufacturerId >= 0) {
+            builder.setManufacturerData(manufacturerId, manufacturerData, manufacturerDataMask);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 库内匹配，规则与{@link ScanFilter}一致
+     */
+    boolean matches(@NonNull BluetoothDevice device, @NonNull AdvertisingData advData) {
+        if (deviceAddress != null && !deviceAddress.equals(device.getAddress())) {
+            return false;
+        }
+        if (manufacturerId >= 0 && !matchesManufacturerData(advData)) {
+            return false;
+        }
+        if (serviceUuid != null && !matchesServiceUuid(advData)) {
+            return false;
+        }
+        return deviceName == null || deviceName.equals(advData.getName());
+    }
+
+    private boolean matchesServiceUuid(AdvertisingData advData) {
+        if (serviceUuidMask == null) {
+            return advData.hasServiceUuid(serviceUuid);
+        }
+        long msbMask = serviceUuidMask.getMostSignificantBits();
+        long lsbMask = serviceUuidMask.getLeastSignificantBits();
+        for (int i = 0; i < advData.getServiceUuidCount(); i++) {
+            UUID uuid = advData.getServiceUuid(i);
+            if ((uuid.getMostSignificantBits() & msbMask) == (serviceUuid.getMostSignificantBits() & msbMask) &&
+                    (uuid.getLeastSignificantBits() & lsbMask) == (serviceUuid.getLeastSignificantBits() & lsbMask)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesManufacturerData(AdvertisingData advData) {
+        int index = advData.indexOfManufacturerData(manufacturerId);
+        if (index == -1) {
+            return false;
+        }
+        if (manufacturerData == null) {
+            return true;
+        }
+        if (advData.getManufacturerDataLength(index) < manufacturerData.length) {
+            return false;
+        }
+        byte[] bytes = advData.getBytes();
+        int offset = advData.getManufacturerDataOffset(index);
+        for (int i = 0; i < manufacturerData.length; i++) {
+            int mask = manufacturerDataMask == null ? 0xFF : manufacturerDataMask[i];
+            if ((bytes[offset + i] & mask) != (manufacturerData[i] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
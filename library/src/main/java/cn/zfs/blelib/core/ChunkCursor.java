@@ -0,0 +1,144 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 描述: 按包大小逐包读取待写入的数据。直接在原数组、ByteBuffer上移动位置或按位置读取文件，每次取下一包时才复制到复用的缓冲区，
+ * 整个写入过程只有整包和末包两个缓冲区。返回的数组在下次调用{@link #next()}时被覆盖，调用方写出后不能持有
+ */
+class ChunkCursor {
+    private final byte[] array;
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final int chunkSize;
+    private long position;
+    private byte[] chunk;
+    private byte[] tail;
+    private ByteBuffer chunkWrapper;//文件读取时包装chunk，避免每包创建
+    private ByteBuffer tailWrapper;//同上，包装tail
+
+    /**
+     * @param source 数据，不复制
+     * @param chunkSize 包大小
+     */
+    ChunkCursor(@NonNull byte[] source, int chunkSize) {
+        this.array = source;
+        this.buffer = null;
+        this.channel = null;
+        this.start = 0;
+        this.end = source.length;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.position = start;
+    }
+
+    /**
+     * @param source 数据，从position到limit的内容，不改变source的位置
+     * @param chunkSize 包大小
+     */
+    ChunkCursor(@NonNull ByteBuffer source, int chunkSize) {
+        this.array = null;
+        this.buffer = source.duplicate();
+        this.channel = null;
+        this.start = source.position();
+        this.end = source.limit();
+        this.chunkSize = Math.max(1, chunkSize);
+        this.position = start;
+    }
+
+    /**
+     * @param source 文件，按位置读取，不改变其位置
+     * @param start 起始位置
+     * @param end 结束位置，不包含
+     * @param chunkSize 包大小
+     */
+    ChunkCursor(@NonNull FileChannel source, long start, long end, int chunkSize) {
+        this.array = null;
+        this.buffer = null;
+        this.channel = source;
+        this.start = start;
+        this.end = end;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.position = start;
+    }
+
+    boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * 取下一包
+     * @return 复用的缓冲区，下次调用时被覆盖
+     * @throws IOException 读取文件失败
+     */
+    @NonNull
+    byte[] next() throws IOException {
+        int length = (int) Math.min(chunkSize, end - position);
+        if (array != null && position == 0 && length == array.length) {
+            position = end;
+            return array;//只有一包时直接使用原数组
+        }
+        byte[] dst;
+        ByteBuffer wrapper = null;
+        if (length == chunkSize) {
+            if (chunk == null) {
+                chunk = new byte[chunkSize];
+            }
+            dst = chunk;
+            if (channel != null) {
+                if (chunkWrapper == null) {
+                    chunkWrapper = ByteBuffer.wrap(chunk);
+                }
+                wrapper = chunkWrapper;
+            }
+        } else {
+            //末包长度不足一包，单独缓冲区
+            if (tail == null || tail.length != length) {
+                tail = new byte[length];
+                tailWrapper = null;
+            }
+            dst = tail;
+            if (channel != null) {
+                if (tailWrapper == null) {
+                    tailWrapper = ByteBuffer.wrap(tail);
+                }
+                wrapper = tailWrapper;
+            }
+        }
+        if (array != null) {
+            System.arraycopy(array, (int) position, dst, 0, length);
+        } else if (buffer != null) {
+            buffer.position((int) position);
+            buffer.get(dst, 0, length);
+        } else {
+            wrapper.clear();
+            while (wrapper.hasRemaining()) {
+                if (channel.read(wrapper, position + wrapper.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+        position += length;
+        return dst;
+    }
+
+    /**
+     * 已取出的字节数
+     */
+    long getOffset() {
+        return position - start;
+    }
+
+    /**
+     * 剩余字节数
+     */
+    long remaining() {
+        return end - position;
+    }
+}
@@ -18,11 +18,9 @@ import android.util.Log;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 import cn.zfs.blelib.callback.ConnectionStateChangeListener;
 import cn.zfs.blelib.event.Events;
-import cn.zfs.blelib.util.BleUtils;
 
 /**
  * 描述: 蓝牙连接
@@ -55,6 +53,7 @@ public class Connection extends BaseConnection {
     private int reconnectImmediatelyCount;//不搜索，直接连接次数
     private boolean refreshing;
     private boolean isActiveDisconnect;    
+    ScanSession scanSession;//搜索重连时的扫描会话
 	    
     private Connection(BluetoothDevice bluetoothDevice, ConnectionConfig config) {
         super(bluetoothDevice, config);
@@ -69,8 +68,8 @@ public class Connection extends BaseConnection {
     synchronized static Connection newInstance(@NonNull BluetoothAdapter bluetoothAdapter, @NonNull Context context, @NonNull Device device,
                                                ConnectionConfig config, long connectDelay, ConnectionStateChangeListener stateChangeListener) {
         if (device.addr == null || !device.addr.matches("^[0-9A-F]{2}(:[0-9A-F]{2}){5}$")) {
-            Ble.println(Connection.class, Log.ERROR, String.format(Locale.US, "connect failed! [type: unspecified mac address, name: %s, mac: %s]",
-                    device.name, device.addr));
+            Ble.println(Connection.class, Log.ERROR, "connect failed! [type: unspecified mac address, name: %s, mac: %s]",
+                    device.name, device.addr);
             notifyConnectFailed(device, CONNECT_FAIL_TYPE_UNSPECIFIED_MAC_ADDRESS, stateChangeListener);
             return null;
         }
@@ -181,6 +180,7 @@ public class Connection extends BaseConnection {
         
     private void notifyDisconnected() {
         device.connectionState = STATE_DISCONNECTED;
+        Ble.getInstance().removeScanningConnection(device.addr, this);
         sendConnectionCallback();
     }
     
@@ -195,21 +195,22 @@ public class Connection extends BaseConnection {
         if (bluetoothGatt != null) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 if (newState == BluetoothProfile.STATE_CONNECTED) {
-                    Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "connected! [name: %s, mac: %s]",
-                            bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress()));
+                    Ble.println(Connection.class, Log.DEBUG, "connected! [name: %s, mac: %s]",
+                            bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress());
                     device.connectionState = STATE_CONNECTED;
+                    resetMtu();//新建立的链路MTU为默认值
                     sendConnectionCallback();
                     // 进行服务发现，延时
                     handler.sendEmptyMessageDelayed(MSG_DISCOVER_SERVICES, config.discoverServicesDelayMillis);
                 } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                    Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "disconnected! [name: %s, mac: %s, autoReconnEnable: %s]",
-                            bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), String.valueOf(config.autoReconnect)));
+                    Ble.println(Connection.class, Log.DEBUG, "disconnected! [name: %s, mac: %s, autoReconnEnable: %s]",
+                            bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), String.valueOf(config.autoReconnect));
                     clearRequestQueueAndNotify();
                     notifyDisconnected();
                 }
             } else {
-                Ble.println(Connection.class, Log.ERROR, String.format(Locale.US, "GATT error! [name: %s, mac: %s, status: %d]",
-                        bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), status));
+                Ble.println(Connection.class, Log.ERROR, "GATT error! [name: %s, mac: %s, status: %d]",
+                        bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), status);
                 if (status == 133) {
                     doClearTaskAndRefresh();
                 } else {
@@ -224,8 +225,8 @@ public class Connection extends BaseConnection {
         if (bluetoothGatt != null) {
             List<BluetoothGattService> services = bluetoothGatt.getServices();
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "services discovered! [name: %s, mac: %s, size: %d]",
-                        bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), bluetoothGatt.getServices().size()));
+                Ble.println(Connection.class, Log.DEBUG, "services discovered! [name: %s, mac: %s, size: %d]",
+                        bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress(), bluetoothGatt.getServices().size());
                 if (services.isEmpty()) {
                     doClearTaskAndRefresh();
                 } else {
@@ -233,12 +234,16 @@ public class Connection extends BaseConnection {
                     tryReconnectTimes = 0;
                     reconnectImmediatelyCount = 0;
                     device.connectionState = STATE_SERVICE_DISCOVERED;
+                    if (config.autoRequestMtu > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        //在通知连接成功前入队，排在使用方的请求之前
+                        changeMtu(REQUEST_ID_AUTO_MTU, config.autoRequestMtu, Request.Priority.CONTROL);
+                    }
                     sendConnectionCallback();
                 }
             } else {
                 doClearTaskAndRefresh();
-                Ble.println(Connection.class, Log.ERROR, String.format(Locale.US, "GATT error! [status: %d, name: %s, mac: %s]",
-                        status, bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress()));
+                Ble.println(Connection.class, Log.ERROR, "GATT error! [status: %d, name: %s, mac: %s]",
+                        status, bluetoothGatt.getDevice().getName(), bluetoothGatt.getDevice().getAddress());
             }
         }        
     }
@@ -261,7 +266,7 @@ public class Connection extends BaseConnection {
                     //超时
                     if (System.currentTimeMillis() - connStartTime > config.connectTimeoutMillis) {
                         connStartTime = System.currentTimeMillis();
-                        Ble.println(Connection.class, Log.ERROR, String.format(Locale.US, "connect timeout! [name: %s, mac: %s]", device.name, device.addr));
+                        Ble.println(Connection.class, Log.ERROR, "connect timeout! [name: %s, mac: %s]", device.name, device.addr);
                         int type;
                         if (device.connectionState == STATE_SCANNING) {
                             type = TIMEOUT_TYPE_CANNOT_DISCOVER_DEVICE;
@@ -276,8 +281,8 @@ public class Connection extends BaseConnection {
                         } else {
                             doDisconnect(false, true);
                             notifyConnectFailed(device, CONNECT_FAIL_TYPE_MAXIMUM_RECONNECTION, stateChangeListener);
-                            Ble.println(Connection.class, Log.ERROR, String.format(Locale.US, "connect failed! [type: maximun reconnection, name: %s, mac: %s]", 
-                                    device.name, device.addr));
+                            Ble.println(Connection.class, Log.ERROR, "connect failed! [type: maximun reconnection, name: %s, mac: %s]", 
+                                    device.name, device.addr);
                         }
                     }                
                 } else if (config.autoReconnect) {
@@ -290,7 +295,7 @@ public class Connection extends BaseConnection {
         
     //处理刷新
     private void doRefresh(boolean isAuto) {
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "refresh GATT! [name: %s, mac: %s]", device.name, device.addr));
+        Ble.println(Connection.class, Log.DEBUG, "refresh GATT! [name: %s, mac: %s]", device.name, device.addr);
 	    connStartTime = System.currentTimeMillis();//防止刷新过程自动重连
         if (bluetoothGatt != null) {
             bluetoothGatt.disconnect();
@@ -324,10 +329,9 @@ public class Connection extends BaseConnection {
             bluetoothGatt = null;
         }
         device.connectionState = STATE_CONNECTING;
+        Ble.getInstance().removeScanningConnection(device.addr, this);
         sendConnectionCallback();
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "connecting [name: %s, mac: %s]", device.name, device.addr));
-        //连接时需要停止蓝牙扫描
-        Ble.getInstance().stopScan();
+        Ble.println(Connection.class, Log.DEBUG, "connecting [name: %s, mac: %s]", device.name, device.addr);
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
@@ -351,11 +355,12 @@ public class Connection extends BaseConnection {
             bluetoothGatt = null;
         }
         device.connectionState = STATE_DISCONNECTED;
+        Ble.getInstance().removeScanningConnection(device.addr, this);
         if (isReleased) {//销毁
             device.connectionState = STATE_RELEASED;
             bluetoothGatt = null;
             handler.removeCallbacksAndMessages(null);
-            Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "connection released! [name: %s, mac: %s]", device.name, device.addr));
+            Ble.println(Connection.class, Log.DEBUG, "connection released! [name: %s, mac: %s]", device.name, device.addr);
         } else if (reconnect) {
             tryReconnectTimes++;
             if (reconnectImmediatelyCount < config.reconnectImmediatelyTimes) {
@@ -374,15 +379,14 @@ public class Connection extends BaseConnection {
     private void tryScanReconnect() {        
         if (!isReleased) {
             connStartTime = System.currentTimeMillis();
-            Ble.getInstance().stopScan();
             handler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
                     if (!isReleased) {
-                        //开启扫描，扫描到才连接
+                        //获取只搜索本设备的扫描会话，扫描到才连接，不影响其他扫描
                         device.connectionState = STATE_SCANNING;
-                        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "scanning [name: %s, mac: %s]", device.name, device.addr));
-                        Ble.getInstance().startScan(context);
+                        Ble.println(Connection.class, Log.DEBUG, "scanning [name: %s, mac: %s]", device.name, device.addr);
+                        Ble.getInstance().addScanningConnection(device.addr, Connection.this);
                     }
                 }
             }, 2000);
@@ -476,64 +480,75 @@ public class Connection extends BaseConnection {
         }
 	}
 
-	private String getHex(byte[] value) {
-        return BleUtils.bytesToHexString(value).trim();
-    }
-	
     @Override
     public void onCharacteristicRead(@NonNull String requestId, BluetoothGattCharacteristic characteristic) {
         Ble.getInstance().postEvent(Events.newCharacteristicRead(device, requestId, new GattCharacteristic(characteristic.getService().getUuid(), characteristic.getUuid(), characteristic.getValue())));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "characteristic read! [mac: %s, value: %s]", device.addr, getHex(characteristic.getValue())));
+        Ble.println(Connection.class, Log.DEBUG, "characteristic read! [mac: %s, value: %s]", device.addr, characteristic.getValue());
     }
 
     @Override
     public void onCharacteristicChanged(BluetoothGattCharacteristic characteristic) {
         Ble.getInstance().postEvent(Events.newCharacteristicChanged(device, new GattCharacteristic(characteristic.getService().getUuid(), characteristic.getUuid(), characteristic.getValue())));
-        Ble.println(Connection.class, Log.INFO, String.format(Locale.US, "characteristic change! [mac: %s, value: %s]", device.addr, getHex(characteristic.getValue())));
+        Ble.println(Connection.class, Log.INFO, "characteristic change! [mac: %s, value: %s]", device.addr, characteristic.getValue());
     }
 
     @Override
     public void onReadRemoteRssi(@NonNull String requestId, int rssi) {
+        Ble.getInstance().updateRssi(device, rssi, null);
         Ble.getInstance().postEvent(Events.newRemoteRssiRead(device, requestId, rssi));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "rssi read! [mac: %s, rssi: %d]", device.addr, rssi));
+        Ble.println(Connection.class, Log.DEBUG, "rssi read! [mac: %s, rssi: %d]", device.addr, rssi);
     }
 
     @Override
     public void onMtuChanged(@NonNull String requestId, int mtu) {
         Ble.getInstance().postEvent(Events.newMtuChanged(device, requestId, mtu));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "mtu change! [mac: %s, mtu: %d]", device.addr, mtu));
+        Ble.println(Connection.class, Log.DEBUG, "mtu change! [mac: %s, mtu: %d]", device.addr, mtu);
     }
 
     @Override
     public void onRequestFialed(@NonNull String requestId, @NonNull Request.RequestType requestType, int failType, byte[] value) {
         Ble.getInstance().postEvent(Events.newRequestFailed(device, requestId, requestType, failType, value));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "request failed! [mac: %s, requestId: %s, failType: %d]", device.addr, requestId, failType));
+        Ble.println(Connection.class, Log.DEBUG, "request failed! [mac: %s, requestId: %s, failType: %d]", device.addr, requestId, failType);
     }
 
     @Override
     public void onDescriptorRead(@NonNull String requestId, BluetoothGattDescriptor descriptor) {
         BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
         Ble.getInstance().postEvent(Events.newDescriptorRead(device, requestId, new GattDescriptor(characteristic.getService().getUuid(), characteristic.getUuid(), descriptor.getUuid(), descriptor.getValue())));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "descriptor read! [mac: %s, value: %s]", device.addr, getHex(descriptor.getValue())));
+        Ble.println(Connection.class, Log.DEBUG, "descriptor read! [mac: %s, value: %s]", device.addr, descriptor.getValue());
     }
 
     @Override
     public void onNotificationChanged(@NonNull String requestId, BluetoothGattDescriptor descriptor, boolean isEnabled) {
         BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
         Ble.getInstance().postEvent(Events.newNotificationChanged(device, requestId, new GattDescriptor(characteristic.getService().getUuid(), characteristic.getUuid(), descriptor.getUuid(), descriptor.getValue()), isEnabled));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, (isEnabled ? "notification enabled!" : "notification disabled!") + " [mac: %s]", device.addr));
+        Ble.println(Connection.class, Log.DEBUG, (isEnabled ? "notification enabled!" : "notification disabled!") + " [mac: %s]", device.addr);
     }
 
     @Override
     public void onIndicationChanged(@NonNull String requestId, BluetoothGattDescriptor descriptor, boolean isEnabled) {
         BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
         Ble.getInstance().postEvent(Events.newIndicationChanged(device, requestId, new GattDescriptor(characteristic.getService().getUuid(), characteristic.getUuid(), descriptor.getUuid(), descriptor.getValue()), isEnabled));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, (isEnabled ? "indication enabled!" : "indication disabled") + " [mac: %s]", device.addr));
+        Ble.println(Connection.class, Log.DEBUG, (isEnabled ? "indication enabled!" : "indication disabled") + " [mac: %s]", device.addr);
     }
 
     @Override
     public void onCharacteristicWrite(@NonNull String requestId, byte[] value) {
         Ble.getInstance().postEvent(Events.newCharacteristicWrite(device, requestId, value));
-        Ble.println(Connection.class, Log.DEBUG, String.format(Locale.US, "write success! [mac: %s, value: %s]", device.addr, getHex(value)));
+        Ble.println(Connection.class, Log.DEBUG, "write success! [mac: %s, value: %s]", device.addr, value);
+    }
+
+    @Override
+    public void onTransactionCompleted(@NonNull String requestId, @NonNull TransactionResult result) {
+        Ble.getInstance().postEvent(Events.newTransactionCompleted(device, requestId, result));
+        Ble.println(Connection.class, Log.DEBUG, "transaction completed! [mac: %s, requestId: %s, steps: %d, duration: %dus]", device.addr,
+                requestId, result.getSteps().size(), result.getDurationNanos() / 1000);
+    }
+
+    @Override
+    public void onTransferProgress(@NonNull String requestId, long offset, long total, float bytesPerSecond) {
+        Ble.getInstance().postEvent(Events.newTransferProgress(device, requestId, offset, total, bytesPerSecond));
+        Ble.println(Connection.class, Log.DEBUG, "transfer progress! [mac: %s, requestId: %s, offset: %d/%d, speed: %.1fB/s]", device.addr,
+                requestId, offset, total, bytesPerSecond);
     }
 }
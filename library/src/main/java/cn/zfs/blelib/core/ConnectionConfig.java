@@ -4,9 +4,12 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 描述:
@@ -16,10 +19,25 @@ import java.util.UUID;
 public class ConnectionConfig implements Cloneable {
     public static final int TRY_RECONNECT_TIMES_INFINITE = -1;//无限重连
 
+    /**
+     * 请求队列已满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /** 拒绝新请求，默认 */
+        REJECT,
+        /** 丢弃优先级不高于新请求的队列中最早的请求，没有可丢弃的则拒绝新请求 */
+        DROP_OLDEST,
+        /**
+         * 入队线程阻塞等待，超时后拒绝新请求。只用于工作线程：在主线程和蓝牙回调线程上入队时不阻塞，
+         * 按{@link #REJECT}直接拒绝，这些线程应通过{@link cn.zfs.blelib.callback.BackpressureListener}暂停提交
+         */
+        BLOCK
+    }
+
     long discoverServicesDelayMillis = 500;
     int connectTimeoutMillis = 10000;//连接超时时间
     int tryReconnectTimes = TRY_RECONNECT_TIMES_INFINITE;
-    int packageWriteDelayMillis;
+    long packageWriteDelayNanos;
     int requestWriteDelayMillis = -1;
     int packageSize = 20;//发送数据时的分包大小
     boolean waitWriteResult = true;
@@ -27,6 +45,19 @@ public class ConnectionConfig implements Cloneable {
     private Map<String, Integer> writeTypeMap = new HashMap<>();
     boolean autoReconnect = true;//是否自动重连
     int transport = -1;//传输模式
+    boolean strictPriority;//是否严格按优先级调度请求
+    int[] priorityWeights = {8, 4, 1};//按Request.Priority顺序的调度权重
+    int starvationMillis = 3000;//请求等待超过此时长时优先执行
+    private int[] requestTimeoutMillis = newRequestTimeouts(1000);//按Request.RequestType顺序的请求超时时间
+    boolean adaptiveRequestTimeout;//是否根据往返时间调整超时
+    int minAdaptiveTimeoutMillis = 300;
+    int maxAdaptiveTimeoutMillis = 10000;
+    int autoRequestMtu;//发现服务后自动请求的MTU，0为不请求
+    boolean readDeduplication;//是否合并重复的读请求
+    private Set<String> writeCoalescingSet = new HashSet<>();//排队写入只保留最新值的特征
+    int requestQueueCapacity;//请求队列容量，0为不限
+    OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    int overflowBlockTimeoutMillis = 1000;
 
     private ConnectionConfig() {
         
@@ -35,6 +66,14 @@ public class ConnectionConfig implements Cloneable {
     public static ConnectionConfig newInstance() {
         return new ConnectionConfig();
     }
+
+    private static int[] newRequestTimeouts(int timeoutMillis) {
+        int[] timeouts = new int[Request.RequestType.values().length];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = timeoutMillis;
+        }
+        return timeouts;
+    }
     
     /**
      * 获取连接超时时间
@@ -78,14 +117,25 @@ public class ConnectionConfig implements Cloneable {
     }
 
     public int getPackageWriteDelayMillis() {
-        return packageWriteDelayMillis;
+        return (int) TimeUnit.NANOSECONDS.toMillis(packageWriteDelayNanos);
     }
 
     /**
      * 设置包发送延时，默认不延时
      */
     public ConnectionConfig setPackageWriteDelayMillis(int packageWriteDelayMillis) {
-        this.packageWriteDelayMillis = packageWriteDelayMillis;
+        return setPackageWriteDelay(packageWriteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getPackageWriteDelayNanos() {
+        return packageWriteDelayNanos;
+    }
+
+    /**
+     * 设置包发送延时，可小于1毫秒。延时在连接的节拍线程上等待，不阻塞调用线程和回调线程
+     */
+    public ConnectionConfig setPackageWriteDelay(long delay, TimeUnit unit) {
+        this.packageWriteDelayNanos = unit.toNanos(Math.max(0, delay));
         return this;
     }
 
@@ -181,4 +231,193 @@ public class ConnectionConfig implements Cloneable {
     public void setTransport(int transport) {
         this.transport = transport;
     }
+
+    public boolean isStrictPriority() {
+        return strictPriority;
+    }
+
+    /**
+     * 是否严格按优先级调度请求。严格调度时高优先级队列不为空就不执行低优先级请求，否则按权重轮流调度。默认按权重
+     */
+    public ConnectionConfig setStrictPriority(boolean strictPriority) {
+        this.strictPriority = strictPriority;
+        return this;
+    }
+
+    /**
+     * 设置按权重调度时各优先级的权重，默认8:4:1
+     *
+     * @param control {@link Request.Priority#CONTROL}的权重
+     * @param interactive {@link Request.Priority#INTERACTIVE}的权重
+     * @param bulk {@link Request.Priority#BULK}的权重
+     */
+    public ConnectionConfig setPriorityWeights(int control, int interactive, int bulk) {
+        if (control <= 0 || interactive <= 0 || bulk <= 0) {
+            throw new IllegalArgumentException("weights must be positive");
+        }
+        priorityWeights = new int[]{control, interactive, bulk};
+        return this;
+    }
+
+    public int getPriorityWeight(Request.Priority priority) {
+        return priorityWeights[priority.ordinal()];
+    }
+
+    public int getStarvationMillis() {
+        return starvationMillis;
+    }
+
+    /**
+     * 请求排队超过此时长时不论优先级提前执行（与正常调度交替进行），避免低优先级请求饿死，默认3000
+     *
+     * @param starvationMillis 毫秒，小于等于0时不处理
+     */
+    public ConnectionConfig setStarvationMillis(int starvationMillis) {
+        this.starvationMillis = starvationMillis;
+        return this;
+    }
+
+    public int getRequestTimeoutMillis(Request.RequestType type) {
+        return requestTimeoutMillis[type.ordinal()];
+    }
+
+    /**
+     * 设置所有类型请求的超时时间，默认1000
+     */
+    public ConnectionConfig setRequestTimeoutMillis(int timeoutMillis) {
+        if (timeoutMillis > 0) {
+            requestTimeoutMillis = newRequestTimeouts(timeoutMillis);
+        }
+        return this;
+    }
+
+    /**
+     * 设置指定类型请求的超时时间，开启自适应超时后作为还没有往返时间时的超时时间
+     *
+     * @param timeoutMillis 毫秒
+     */
+    public ConnectionConfig setRequestTimeoutMillis(Request.RequestType type, int timeoutMillis) {
+        if (timeoutMillis > 0) {
+            int[] timeouts = requestTimeoutMillis.clone();
+            timeouts[type.ordinal()] = timeoutMillis;
+            requestTimeoutMillis = timeouts;
+        }
+        return this;
+    }
+
+    public boolean isAdaptiveRequestTimeout() {
+        return adaptiveRequestTimeout;
+    }
+
+    /**
+     * 是否根据每类请求的往返时间自动调整超时时间，超时时间为平滑往返时间加4倍偏差，超时后加倍。默认不开启
+     */
+    public ConnectionConfig setAdaptiveRequestTimeout(boolean adaptiveRequestTimeout) {
+        this.adaptiveRequestTimeout = adaptiveRequestTimeout;
+        return this;
+    }
+
+    /**
+     * 设置自适应超时时间的范围，默认300~10000
+     */
+    public ConnectionConfig setAdaptiveTimeoutRange(int minMillis, int maxMillis) {
+        if (minMillis > 0 && maxMillis >= minMillis) {
+            minAdaptiveTimeoutMillis = minMillis;
+            maxAdaptiveTimeoutMillis = maxMillis;
+        }
+        return this;
+    }
+
+    public int getMinAdaptiveTimeoutMillis() {
+        return minAdaptiveTimeoutMillis;
+    }
+
+    public int getMaxAdaptiveTimeoutMillis() {
+        return maxAdaptiveTimeoutMillis;
+    }
+
+    public int getAutoRequestMtu() {
+        return autoRequestMtu;
+    }
+
+    /**
+     * 发现服务后自动请求MTU，请求码为{@link IConnection#REQUEST_ID_AUTO_MTU}。开启后分包大小跟随协商到的MTU：
+     * 普通写入和无响应写入为MTU-3，签名写入为MTU-15，不再使用{@link #setPackageSize(int)}设置的值。只在5.0以上系统有效
+     *
+     * @param mtu 期望的MTU，23~517，小于等于23时不开启。默认不开启
+     */
+    public ConnectionConfig setAutoRequestMtu(int mtu) {
+        this.autoRequestMtu = mtu <= 23 ? 0 : Math.min(mtu, 517);
+        return this;
+    }
+
+    public boolean isReadDeduplication() {
+        return readDeduplication;
+    }
+
+    /**
+     * 是否合并重复的读请求。开启后读特征值、读描述符、读信号强度时，如果队列中已有相同的读请求且优先级不低于新请求，
+     * 则不再入队，读到结果后按各自的请求码分别回调。队列中该特征在两次读之间有写入或开关通知的不合并。默认不开启
+     */
+    public ConnectionConfig setReadDeduplication(boolean readDeduplication) {
+        this.readDeduplication = readDeduplication;
+        return this;
+    }
+
+    public boolean isWriteCoalescing(UUID service, UUID characteristic) {
+        return writeCoalescingSet.contains(String.format(Locale.US, "%s:%s", service.toString(), characteristic.toString()));
+    }
+
+    /**
+     * 写入合并，适用于只关心最新值的特征，如调光、音量。开启后同一优先级队列中还未执行的写入被新的写入替换，
+     * 新请求占用旧请求的排队位置，旧请求以{@link IConnection#REQUEST_FAIL_TYPE_REQUEST_REPLACED}回调失败。
+     * 正在执行的写入不受影响。默认不开启
+     */
+    public ConnectionConfig setWriteCoalescing(UUID service, UUID characteristic, boolean enable) {
+        String key = String.format(Locale.US, "%s:%s", service.toString(), characteristic.toString());
+        if (enable) {
+            writeCoalescingSet.add(key);
+        } else {
+            writeCoalescingSet.remove(key);
+        }
+        return this;
+    }
+
+    public int getRequestQueueCapacity() {
+        return requestQueueCapacity;
+    }
+
+    /**
+     * 请求队列容量，不包括正在执行的请求。队列满时按{@link #setOverflowPolicy(OverflowPolicy)}处理，
+     * 被拒绝或丢弃的请求以{@link IConnection#REQUEST_FAIL_TYPE_QUEUE_FULL}失败。默认不限
+     *
+     * @param capacity 小于等于0时不限
+     */
+    public ConnectionConfig setRequestQueueCapacity(int capacity) {
+        this.requestQueueCapacity = Math.max(0, capacity);
+        return this;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public ConnectionConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy != null) {
+            this.overflowPolicy = overflowPolicy;
+        }
+        return this;
+    }
+
+    public int getOverflowBlockTimeoutMillis() {
+        return overflowBlockTimeoutMillis;
+    }
+
+    /**
+     * {@link OverflowPolicy#BLOCK}时的最长等待时间，默认1000
+     */
+    public ConnectionConfig setOverflowBlockTimeoutMillis(int timeoutMillis) {
+        this.overflowBlockTimeoutMillis = Math.max(0, timeoutMillis);
+        return this;
+    }
 }
@@ -5,6 +5,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 
+import java.util.Comparator;
+
 /**
  * 描述: 蓝牙设备
  * 时间: 2018/4/11 15:00
@@ -51,6 +53,18 @@ public class Device implements Comparable<Device>, Cloneable, Parcelable {
      * 信号强度
      */
     public int rssi = -1000;
+    /**
+     * 平滑后的信号强度，未设置平滑参数时与{@link #rssi}相同
+     */
+    public float smoothedRssi = -1000;
+    /**
+     * 1米处的信号强度，用于估算距离，0表示未知。可在{@link IScanHandler}中根据广播设置，如iBeacon的Measured Power
+     */
+    public int measuredPower;
+    /**
+     * 根据平滑后的信号强度估算的距离，米。小于0表示未估算
+     */
+    public double distance = -1;
     /**
      * 工作模式
      */
@@ -64,6 +78,17 @@ public class Device implements Comparable<Device>, Cloneable, Parcelable {
      */
     public int bondState;
 
+    /**
+     * 按平滑后的信号强度从强到弱排序，信号相同时按名称
+     */
+    public static final Comparator<Device> SMOOTHED_RSSI_COMPARATOR = new Comparator<Device>() {
+        @Override
+        public int compare(Device o1, Device o2) {
+            int result = Float.compare(o2.smoothedRssi, o1.smoothedRssi);
+            return result == 0 ? o1.name.compareTo(o2.name) : result;
+        }
+    };
+
     public Device() {
     }
 
@@ -143,6 +168,9 @@ public class Device implements Comparable<Device>, Cloneable, Parcelable {
         dest.writeInt(this.type);
         dest.writeInt(this.battery);
         dest.writeInt(this.rssi);
+        dest.writeFloat(this.smoothedRssi);
+        dest.writeInt(this.measuredPower);
+        dest.writeDouble(this.distance);
         dest.writeInt(this.mode);
         dest.writeInt(this.connectionState);
         dest.writeInt(this.bondState);
@@ -159,6 +187,9 @@ public class Device implements Comparable<Device>, Cloneable, Parcelable {
         this.type = in.readInt();
         this.battery = in.readInt();
         this.rssi = in.readInt();
+        this.smoothedRssi = in.readFloat();
+        this.measuredPower = in.readInt();
+        this.distance = in.readDouble();
         this.mode = in.readInt();
         this.connectionState = in.readInt();
         this.bondState = in.readInt();
@@ -0,0 +1,214 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 描述: 设备离开检测。用哈希时间轮管理所有扫描到的设备，一个线程按刻度推进，设备超过指定时长未被扫描到时通知离开。
+ * 再次扫描到只记录时间，到期时才按最后扫描到的时间重新放入时间轮，扫描结果处理中不需要移动节点
+ */
+class DeviceLostDetector {
+    private static final int WHEEL_SIZE = 256;//2的幂
+    private static final int MIN_TICK_MILLIS = 50;
+    //刻度为超时的1/16，超时判断误差不超过一个刻度
+    private static final int TICKS_PER_TIMEOUT = 16;
+
+    interface Callback {
+        /**
+         * 设备离开，在检测线程回调。回调前设备可能又被扫描到，需要与lastSeen比较后再移除
+         * @param lastSeen 判定离开时最后扫描到的时间，同{@link #touch(String, int)}的返回值
+         */
+        void onDeviceLost(@NonNull String addr, long lastSeen);
+    }
+
+    private static class Node {
+        final String addr;
+        volatile long lastSeen;
+        long lostLastSeen;//判定离开时的lastSeen，之后再写入的lastSeen不影响回调
+        long deadlineTick;
+        Node prev;
+        Node next;
+
+        Node(String addr) {
+            this.addr = addr;
+        }
+    }
+
+    private final Callback callback;
+    private final Node[] wheel = new Node[WHEEL_SIZE];
+    private final Map<String, Node> nodes = new HashMap<>();
+    private int timeoutMillis;
+    private int tickMillis;
+    private long startTime;
+    private long currentTick;
+    private Thread thread;
+
+    DeviceLostDetector(@NonNull Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * 扫描到设备
+     * @param timeoutMillis 多长时间未扫描到视为离开
+     * @return 扫描到的时间，毫秒，单调时钟
+     */
+    long touch(@NonNull String addr, int timeoutMillis) {
+        long now = now();
+        Node node;
+        synchronized (this) {
+            if (timeoutMillis != this.timeoutMillis) {
+                retune(now, timeoutMillis);
+            }
+            node = nodes.get(addr);
+            if (node == null) {
+                node = new Node(addr);
+                node.lastSeen = now;
+                nodes.put(addr, node);
+                if (thread == null) {
+                    start(now);
+                }
+                schedule(node, now + timeoutMillis);
+                return now;
+            }
+        }
+        node.lastSeen = now;
+        return now;
+    }
+
+    /**
+     * 移除设备，不再检测
+     */
+    synchronized void remove(@NonNull String addr) {
+        Node node = nodes.remove(addr);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * 清空所有设备，检测线程随之退出
+     */
+    synchronized void clear() {
+        nodes.clear();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = null;
+        }
+        notifyAll();
+    }
+
+    private void start(long now) {
+        startTime = now;
+        currentTick = 0;
+        thread = new Thread(tickRunnable, "ble-device-lost");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //超时变化时按新的刻度重建时间轮，已有设备按最后扫描到的时间重新放入
+    private void retune(long now, int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        tickMillis = Math.max(MIN_TICK_MILLIS, timeoutMillis / TICKS_PER_TIMEOUT);
+        startTime = now;
+        currentTick = 0;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = null;
+        }
+        for (Node node : nodes.values()) {
+            schedule(node, node.lastSeen + timeoutMillis);
+        }
+        //检测线程按新的刻度重新计算等待时长
+        notifyAll();
+    }
+
+    private void schedule(Node node, long deadline) {
+        //向上取整，保证不会提前到期
+        node.deadlineTick = Math.max(currentTick + 1, (deadline - startTime + tickMillis - 1) / tickMillis);
+        int slot = (int) (node.deadlineTick & (WHEEL_SIZE - 1));
+        node.prev = null;
+        node.next = wheel[slot];
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        wheel[slot] = node;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            int slot = (int) (node.deadlineTick & (WHEEL_SIZE - 1));
+            if (wheel[slot] == node) {
+                wheel[slot] = node.next;
+            }
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    //推进一个刻度，返回此刻度离开的设备
+    private Node advance() {
+        currentTick++;
+        int slot = (int) (currentTick & (WHEEL_SIZE - 1));
+        Node lost = null;
+        Node node = wheel[slot];
+        long now = now();
+        int timeout = timeoutMillis;
+        while (node != null) {
+            Node next = node.next;
+            if (node.deadlineTick <= currentTick) {
+                unlink(node);
+                long lastSeen = node.lastSeen;
+                if (now - lastSeen >= timeout) {
+                    nodes.remove(node.addr);
+                    node.lostLastSeen = lastSeen;
+                    node.next = lost;
+                    lost = node;
+                } else {
+                    //期间又被扫描到，按最后扫描到的时间重新放入
+                    schedule(node, lastSeen + timeout);
+                }
+            }
+            node = next;
+        }
+        return lost;
+    }
+
+    private Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Node lost;
+                synchronized (DeviceLostDetector.this) {
+                    if (nodes.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                    long wait = startTime + (currentTick + 1) * tickMillis - now();
+                    if (wait > 0) {
+                        try {
+                            DeviceLostDetector.this.wait(wait);
+                        } catch (InterruptedException e) {
+                            thread = null;
+                            return;
+                        }
+                        continue;
+                    }
+                    lost = advance();
+                }
+                //在锁外回调
+                for (Node node = lost; node != null; node = node.next) {
+                    callback.onDeviceLost(node.addr, node.lostLastSeen);
+                }
+            }
+        }
+    };
+
+    private static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+}
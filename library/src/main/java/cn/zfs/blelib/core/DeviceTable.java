@@ -0,0 +1,127 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 描述: 扫描到的设备表，按地址保存。广播内容不变时原地更新信号强度，不重新生成设备。
+ * 设备数超过容量时移除最久未扫描到的设备
+ */
+class DeviceTable {
+    interface Callback {
+        /**
+         * 设备因超过容量被移除，在添加设备的线程回调
+         */
+        void onEvicted(@NonNull String addr);
+    }
+
+    static class Entry {
+        /** 设备，被IScanHandler过滤时为null */
+        Device device;
+        /** 生成设备时的广播内容 */
+        byte[] scanRecord;
+        /** 最后扫描到的时间，同{@link DeviceLostDetector#touch(String, int)}的返回值 */
+        long lastSeen;
+    }
+
+    private final Callback callback;
+    //按访问顺序排列，最前面的是最久未扫描到的
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    DeviceTable(@NonNull Callback callback) {
+        this.callback = callback;
+    }
+
+    synchronized Entry get(@NonNull String addr) {
+        return entries.get(addr);
+    }
+
+    /**
+     * 扫描到设备时获取，同时记录扫描到的时间
+     * @param lastSeen 扫描到的时间
+     */
+    synchronized Entry get(@NonNull String addr, long lastSeen) {
+        Entry entry = entries.get(addr);
+        if (entry != null) {
+            entry.lastSeen = lastSeen;
+        }
+        return entry;
+    }
+
+    /**
+     * 新设备或广播内容变化后更新设备
+     * @param device 为null时表示此广播内容被过滤
+     * @param lastSeen 扫描到的时间
+     * @param capacity 设备表容量，小于等于0时不限
+     */
+    @NonNull
+    Entry put(@NonNull String addr, Device device, byte[] scanRecord, long lastSeen, int capacity) {
+        Entry entry;
+        List<String> evicted = null;
+        synchronized (this) {
+            entry = entries.get(addr);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(addr, entry);
+            }
+            entry.device = device;
+            entry.scanRecord = scanRecord;
+            entry.lastSeen = lastSeen;
+            if (capacity > 0 && entries.size() > capacity) {
+                evicted = new ArrayList<>(entries.size() - capacity);
+                Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+                while (entries.size() > capacity) {
+                    evicted.add(it.next().getKey());
+                    it.remove();
+                }
+            }
+        }
+        //在锁外回调
+        if (evicted != null) {
+            for (String a : evicted) {
+                callback.onEvicted(a);
+            }
+        }
+        return entry;
+    }
+
+    synchronized Entry remove(@NonNull String addr) {
+        return entries.remove(addr);
+    }
+
+    /**
+     * 设备离开时移除，判定离开后又被扫描到的不移除
+     * @param lastSeen 判定离开时最后扫描到的时间
+     * @return 移除的设备，不存在或又被扫描到时返回null
+     */
+    synchronized Entry removeIfNotSeenSince(@NonNull String addr, long lastSeen) {
+        Entry entry = entries.get(addr);
+        if (entry == null || entry.lastSeen > lastSeen) {
+            return null;
+        }
+        return entries.remove(addr);
+    }
+
+    /**
+     * 所有未被过滤的设备
+     */
+    @NonNull
+    synchronized List<Device> getDevices() {
+        List<Device> list = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.device != null) {
+                list.add(entry.device);
+            }
+        }
+        return list;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,173 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+/**
+ * 描述: 文件传输，如固件升级。按包大小从文件逐包读取后写入，不把整个文件读入内存，内存占用与文件大小无关。
+ * 进度按间隔发布，不会每包发布一次。断开连接后可从{@link #getOffset()}续传。
+ * 已写入位置只在收到写入回调后前进，交给协议栈但未回调的包不计入
+ */
+public class FileTransfer {
+    private final BaseConnection connection;
+    private final String requestId;
+    private final UUID service;
+    private final UUID characteristic;
+    private final FileChannel channel;
+    private long startOffset;
+    private boolean memoryMapped;
+    private Request.Priority priority = Request.Priority.BULK;
+    private long deadlineMillis;
+    private long progressIntervalNanos = 500000000L;
+    private boolean started;
+    //-----传输时用到-----
+    private long total;
+    private ByteBuffer mapped;
+    private int chunkSize;
+    private volatile long offset;
+    private long startNanos;
+    private long lastProgressNanos;
+    //-------------------
+
+    FileTransfer(@NonNull BaseConnection connection, @NonNull String requestId, UUID service, UUID characteristic, @NonNull FileChannel channel) {
+        this.connection = connection;
+        this.requestId = requestId;
+        this.service = service;
+        this.characteristic = characteristic;
+        this.channel = channel;
+    }
+
+    /**
+     * 从文件的指定位置开始传输，用于续传
+     */
+    public FileTransfer setOffset(long offset) {
+        this.startOffset = Math.max(0, offset);
+        this.offset = startOffset;
+        return this;
+    }
+
+    /**
+     * 是否映射文件到内存后读取，映射的内存由系统按页调入，不占用堆内存。不超过2G的文件有效，默认不映射，按位置读取文件
+     */
+    public FileTransfer setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * 排队时的优先级，默认{@link Request.Priority#BULK}，不阻塞其他请求
+     */
+    public FileTransfer setPriority(@NonNull Request.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * 截止时间，同{@link System#currentTimeMillis()}，默认0为不限。开始时已过期或排队到截止时间仍未开始的传输
+     * 以{@link IConnection#REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败，已开始传输的不受影响
+     */
+    public FileTransfer setDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * 进度回调的最小间隔，默认500毫秒。传输完成时总会回调一次
+     */
+    public FileTransfer setProgressIntervalMillis(int intervalMillis) {
+        this.progressIntervalNanos = Math.max(0, intervalMillis) * 1000000L;
+        return this;
+    }
+
+    @NonNull
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * 已确认写入的位置，续传时传给{@link #setOffset(long)}。无响应写入时以协议栈的写入回调为准，表示已发出，不代表对端已收到
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * 文件大小，开始传输后有效
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 本次传输的平均速率，字节/秒
+     */
+    public float getBytesPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return startNanos == 0 || elapsed <= 0 ? 0 : (offset - startOffset) * 1e9f / elapsed;
+    }
+
+    /**
+     * 开始传输，每个实例只能开始一次
+     *
+     * @return 请求句柄，结果为null。读取文件失败时以{@link IConnection#REQUEST_FAIL_TYPE_REQUEST_FAILED}失败，
+     * 起始位置不在文件范围内时以{@link IConnection#REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY}失败
+     */
+    @NonNull
+    public RequestFuture<byte[]> start() {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("transfer already started");
+            }
+            started = true;
+        }
+        Request request = Request.newWriteCharacteristicRequest(requestId, service, characteristic, (byte[]) null);
+        request.transfer = this;
+        try {
+            total = channel.size();
+            if (memoryMapped && total - startOffset <= Integer.MAX_VALUE && startOffset < total) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, startOffset, total - startOffset);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return connection.fail(request, IConnection.REQUEST_FAIL_TYPE_REQUEST_FAILED);
+        }
+        if (startOffset >= total) {
+            return connection.fail(request, IConnection.REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY);
+        }
+        return connection.enqueue(request, priority, deadlineMillis);
+    }
+
+    //开始执行时才创建，包大小跟随当时的MTU
+    @NonNull
+    ChunkCursor newCursor(int chunkSize) {
+        startNanos = System.nanoTime();
+        lastProgressNanos = startNanos;
+        this.chunkSize = Math.max(1, chunkSize);
+        return mapped != null ? new ChunkCursor(mapped, chunkSize) : new ChunkCursor(channel, startOffset, total, chunkSize);
+    }
+
+    /**
+     * 收到一包的写入回调。包按顺序发出和回调，只有末包不足包大小
+     * @return 是否需要回调进度
+     */
+    boolean onWritten() {
+        offset = Math.min(offset + chunkSize, total);
+        long now = System.nanoTime();
+        if (isCompleted() || now - lastProgressNanos >= progressIntervalNanos) {
+            lastProgressNanos = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有包都已收到写入回调
+     */
+    boolean isCompleted() {
+        return offset >= total;
+    }
+}
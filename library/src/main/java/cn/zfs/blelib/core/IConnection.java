@@ -39,6 +39,17 @@ public interface IConnection {
     int REQUEST_FAIL_TYPE_CONNECTION_RELEASED = 10;
     /**写入的值为空*/
     int REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY = 11;
+    /**排队中的写入被同一特征的新写入替换，见{@link ConnectionConfig#setWriteCoalescing(UUID, UUID, boolean)}*/
+    int REQUEST_FAIL_TYPE_REQUEST_REPLACED = 12;
+    /**请求在排队中被取消，见{@link RequestFuture#cancel(boolean)}*/
+    int REQUEST_FAIL_TYPE_REQUEST_CANCELLED = 13;
+    /**请求入队时或排队到截止时间时已过期，未执行，见请求方法的deadlineMillis参数和{@link RequestFuture#setDeadline(long)}*/
+    int REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED = 14;
+    /**请求队列已满，请求被拒绝或被丢弃，见{@link ConnectionConfig#setOverflowPolicy(ConnectionConfig.OverflowPolicy)}*/
+    int REQUEST_FAIL_TYPE_QUEUE_FULL = 15;
+
+    /**发现服务后自动协商MTU的请求码，见{@link ConnectionConfig#setAutoRequestMtu(int)}*/
+    String REQUEST_ID_AUTO_MTU = "blelib_auto_mtu";
 
     //----------蓝牙连接状态-------------   
     /**连接断开*/
@@ -86,4 +97,8 @@ public interface IConnection {
     void onIndicationChanged(@NonNull String requestId, BluetoothGattDescriptor descriptor, boolean isEnabled);
 
     void onCharacteristicWrite(@NonNull String requestId, byte[] value);
+
+    void onTransactionCompleted(@NonNull String requestId, @NonNull TransactionResult result);
+
+    void onTransferProgress(@NonNull String requestId, long offset, long total, float bytesPerSecond);
 }
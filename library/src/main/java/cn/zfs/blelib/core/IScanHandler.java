@@ -13,7 +13,8 @@ public interface IScanHandler {
      * 根据广播信息添加设备属性并确定是否过滤
      * @param device 搜索到的设备
      * @param scanRecord 广播内容
+     * @param advData 已解析好的广播字段索引，只在本次调用内有效，不要持有
      * @return 是否过滤，null时表示不过滤
      */
-    Device handle(@NonNull BluetoothDevice device, byte[] scanRecord);
+    Device handle(@NonNull BluetoothDevice device, byte[] scanRecord, @NonNull AdvertisingData advData);
 }
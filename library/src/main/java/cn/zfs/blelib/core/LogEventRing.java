@@ -0,0 +1,83 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import cn.zfs.blelib.event.Events;
+
+/**
+ * 描述: 日志事件异步发布。日志先写入固定容量的环形缓冲区，由后台线程批量取出发布，
+ * 缓冲区满时覆盖最旧的日志，打日志的线程不会被订阅者阻塞
+ */
+class LogEventRing {
+    private final String[] logs;
+    private final int[] levels;
+    private final Executor executor;
+    private int head;//下一条待发布的位置
+    private int size;
+    private int dropped;//被覆盖的日志条数
+    private boolean draining;
+
+    LogEventRing(int capacity, @NonNull Executor executor) {
+        logs = new String[capacity];
+        levels = new int[capacity];
+        this.executor = executor;
+    }
+
+    void offer(@NonNull String log, int level) {
+        synchronized (this) {
+            int tail = (head + size) % logs.length;
+            logs[tail] = log;
+            levels[tail] = level;
+            if (size == logs.length) {
+                head = (head + 1) % logs.length;
+                dropped++;
+            } else {
+                size++;
+            }
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(drainRunnable);
+        } catch (RejectedExecutionException e) {
+            //线程池已关闭，日志留在缓冲区，下次写入时再尝试
+            synchronized (this) {
+                draining = false;
+            }
+        }
+    }
+
+    /**
+     * 被覆盖而未发布的日志条数
+     */
+    synchronized int getDroppedCount() {
+        return dropped;
+    }
+
+    private Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                String log;
+                int level;
+                synchronized (LogEventRing.this) {
+                    if (size == 0) {
+                        draining = false;
+                        return;
+                    }
+                    log = logs[head];
+                    level = levels[head];
+                    logs[head] = null;
+                    head = (head + 1) % logs.length;
+                    size--;
+                }
+                Ble.getInstance().postEvent(Events.newLogChanged(log, level));
+            }
+        }
+    };
+}
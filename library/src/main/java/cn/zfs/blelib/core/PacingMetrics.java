@@ -0,0 +1,40 @@
+package cn.zfs.blelib.core;
+
+/**
+ * 描述: 分包发送节拍的统计快照，偏差为实际发送时间晚于预定时间的时长
+ */
+public class PacingMetrics {
+    private final long count;
+    private final long averageJitterNanos;
+    private final long maxJitterNanos;
+
+    PacingMetrics(long count, long averageJitterNanos, long maxJitterNanos) {
+        this.count = count;
+        this.averageJitterNanos = averageJitterNanos;
+        this.maxJitterNanos = maxJitterNanos;
+    }
+
+    /**
+     * 按节拍发送的次数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getAverageJitterNanos() {
+        return averageJitterNanos;
+    }
+
+    public long getMaxJitterNanos() {
+        return maxJitterNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PacingMetrics{" +
+                "count=" + count +
+                ", averageJitterNanos=" + averageJitterNanos +
+                ", maxJitterNanos=" + maxJitterNanos +
+                '}';
+    }
+}
@@ -0,0 +1,259 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 描述: 按优先级分队列的请求队列。可严格按优先级或按权重平滑轮流出队，排队过久的请求与正常调度交替提前出队，
+ * 并统计每个队列的深度和等待时长。非线程安全，由连接加锁访问
+ */
+class PriorityRequestQueue {
+    private static final Request.Priority[] PRIORITIES = Request.Priority.values();
+
+    private final RequestQueue[] lanes = new RequestQueue[PRIORITIES.length];
+    private final int[] currentWeights = new int[PRIORITIES.length];
+    private final int[] maxDepths = new int[PRIORITIES.length];
+    private final long[] enqueuedCounts = new long[PRIORITIES.length];
+    private final long[] dequeuedCounts = new long[PRIORITIES.length];
+    private final long[] droppedCounts = new long[PRIORITIES.length];
+    private final long[] starvedCounts = new long[PRIORITIES.length];
+    private final long[] maxWaits = new long[PRIORITIES.length];
+    private final long[] totalWaits = new long[PRIORITIES.length];
+    private int size;
+    private int maxSize;
+    private boolean lastStarved;//上一个出队的是否是排队过久的请求
+
+    PriorityRequestQueue() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new RequestQueue();
+        }
+    }
+
+    void add(@NonNull Request request) {
+        int lane = request.priority.ordinal();
+        request.enqueueTime = System.currentTimeMillis();
+        lanes[lane].add(request);
+        size++;
+        if (size > maxSize) {
+            maxSize = size;
+        }
+        enqueuedCounts[lane]++;
+        if (lanes[lane].size() > maxDepths[lane]) {
+            maxDepths[lane] = lanes[lane].size();
+        }
+    }
+
+    /**
+     * 按调度方式取出下一个请求
+     * @return 队列为空时返回null
+     */
+    Request poll(@NonNull ConnectionConfig config) {
+        if (size == 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int lane = -1;
+        //防饿死：排队超时的请求中最早入队的先出。与正常调度交替进行，积压严重时高优先级请求仍能及时执行
+        if (config.starvationMillis > 0 && !lastStarved) {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < lanes.length; i++) {
+                Request head = lanes[i].peek();
+                if (head != null && now - head.enqueueTime >= config.starvationMillis && head.enqueueTime < oldest) {
+                    oldest = head.enqueueTime;
+                    lane = i;
+                }
+            }
+            if (lane != -1 && lane != firstNonEmptyLane()) {
+                starvedCounts[lane]++;
+                lastStarved = true;
+            } else {
+                lane = -1;
+            }
+        } else {
+            lastStarved = false;
+        }
+        if (lane == -1) {
+            lane = config.strictPriority ? firstNonEmptyLane() : nextWeightedLane(config.priorityWeights);
+        }
+        Request request = lanes[lane].poll();
+        size--;
+        dequeuedCounts[lane]++;
+        long wait = now - request.enqueueTime;
+        totalWaits[lane] += wait;
+        if (wait > maxWaits[lane]) {
+            maxWaits[lane] = wait;
+        }
+        return request;
+    }
+
+    private int firstNonEmptyLane() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //平滑加权轮询：非空队列各加上自身权重，取当前值最大的，再减去总权重
+    private int nextWeightedLane(int[] weights) {
+        int lane = -1;
+        int total = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].isEmpty()) {
+                currentWeights[i] = 0;
+                continue;
+            }
+            currentWeights[i] += weights[i];
+            total += weights[i];
+            if (lane == -1 || currentWeights[i] > currentWeights[lane]) {
+                lane = i;
+            }
+        }
+        currentWeights[lane] -= total;
+        return lane;
+    }
+
+    /**
+     * 从最低优先级到指定优先级，取出第一个非空队列中最早的请求，用于队列满时让出位置。计入所在队列的丢弃数，不计入出队数和等待时长
+     * @return 没有时返回null
+     */
+    Request dropOldest(@NonNull Request.Priority highest) {
+        for (int i = lanes.length - 1; i >= highest.ordinal(); i--) {
+            if (!lanes[i].isEmpty()) {
+                size--;
+                droppedCounts[i]++;
+                return lanes[i].poll();
+            }
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 总排队数的最大值
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    void resetMaxSize() {
+        maxSize = size;
+    }
+
+    void clear() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i].clear();
+            currentWeights[i] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * 取出所有请求，按优先级顺序
+     */
+    @NonNull
+    List<Request> drain() {
+        List<Request> requests = new ArrayList<>(size);
+        for (RequestQueue lane : lanes) {
+            for (Request request : lane) {
+                requests.add(request);
+            }
+        }
+        clear();
+        return requests;
+    }
+
+    /**
+     * 从所有队列中移除满足条件的请求
+     * @return 被移除的请求
+     */
+    @NonNull
+    List<Request> removeAll(@NonNull RequestQueue.Condition condition) {
+        List<Request> removed = new ArrayList<>();
+        for (RequestQueue lane : lanes) {
+            removed.addAll(lane.removeAll(condition));
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * 按优先级顺序查找第一个满足条件的请求
+     */
+    Request find(@NonNull RequestQueue.Condition condition) {
+        for (RequestQueue lane : lanes) {
+            Request request = lane.find(condition);
+            if (request != null) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按优先级顺序查找所有满足条件的请求
+     */
+    @NonNull
+    List<Request> findAll(@NonNull RequestQueue.Condition condition) {
+        List<Request> requests = new ArrayList<>();
+        for (RequestQueue lane : lanes) {
+            for (Request request : lane) {
+                if (condition.accept(request)) {
+                    requests.add(request);
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * 在oldRequest所在队列的原位置替换，新请求沿用旧请求的入队时间和优先级
+     */
+    boolean replace(@NonNull Request oldRequest, @NonNull Request newRequest) {
+        newRequest.priority = oldRequest.priority;
+        newRequest.enqueueTime = oldRequest.enqueueTime;
+        return lanes[oldRequest.priority.ordinal()].replace(oldRequest, newRequest);
+    }
+
+    @NonNull
+    List<Request> removeByType(@NonNull Request.RequestType type) {
+        List<Request> removed = new ArrayList<>();
+        for (RequestQueue lane : lanes) {
+            removed.addAll(lane.removeByType(type));
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    @NonNull
+    RequestLaneMetrics getMetrics(@NonNull Request.Priority priority) {
+        int i = priority.ordinal();
+        return new RequestLaneMetrics(priority, lanes[i].size(), maxDepths[i], enqueuedCounts[i], dequeuedCounts[i],
+                droppedCounts[i], starvedCounts[i], maxWaits[i], totalWaits[i]);
+    }
+
+    /**
+     * 清零统计，当前深度作为新的最大深度
+     */
+    void resetMetrics() {
+        for (int i = 0; i < lanes.length; i++) {
+            maxDepths[i] = lanes[i].size();
+            enqueuedCounts[i] = 0;
+            dequeuedCounts[i] = 0;
+            droppedCounts[i] = 0;
+            starvedCounts[i] = 0;
+            maxWaits[i] = 0;
+            totalWaits[i] = 0;
+        }
+    }
+}
@@ -3,7 +3,8 @@ package cn.zfs.blelib.core;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.support.annotation.NonNull;
 
-import java.util.Queue;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.UUID;
 
 import cn.zfs.blelib.util.BleUtils;
@@ -16,7 +17,19 @@ import cn.zfs.blelib.util.BleUtils;
 public class Request {
     
     public enum RequestType {
-        TOGGLE_NOTIFICATION, TOGGLE_INDICATION, READ_CHARACTERISTIC, READ_DESCRIPTOR, READ_RSSI, WRITE_CHARACTERISTIC, CHANGE_MTU
+        TOGGLE_NOTIFICATION, TOGGLE_INDICATION, READ_CHARACTERISTIC, READ_DESCRIPTOR, READ_RSSI, WRITE_CHARACTERISTIC, CHANGE_MTU, TRANSACTION
+    }
+
+    /**
+     * 请求优先级，不同优先级的请求在各自的队列中排队，按{@link ConnectionConfig}中的调度方式出队
+     */
+    public enum Priority {
+        /** 控制类请求，如控制指令、开关通知 */
+        CONTROL,
+        /** 交互类请求，默认 */
+        INTERACTIVE,
+        /** 批量传输，如固件升级数据 */
+        BULK
     }
 
     public RequestType type;
@@ -25,11 +38,21 @@ public class Request {
     public UUID descriptor;
     public String requestId;
     public byte[] value;
+    public Priority priority = Priority.INTERACTIVE;
     boolean waitWriteResult;
-    int writeDelay;
+    long writeDelayNanos;//分包发送的包间延时
     long startTime;//用来记超时，避免卡住队列
+    long enqueueTime;//入队时间，用于防饿死和等待时长统计
+    List<Request> mergedRequests;//合并到此请求的重复读请求，结果按各自的请求码回调
+    RequestFuture<?> future;//请求方法返回的句柄
+    Transaction transaction;//事务本身或所属的事务
+    FileTransfer transfer;//文件传输时的数据来源
+    volatile Object tag;//用于按标签取消
+    volatile long deadline;//截止时间，过期的请求出队时直接失败，0为不限
     //-----分包发送时用到-----
-    Queue<byte[]> remainQueue;
+    ByteBuffer data;//以ByteBuffer写入时的数据，此时value为null
+    ChunkCursor chunks;
+    int writeType = -1;//写入时使用的写入类型，-1为特征的默认类型
     //----------------------
 
     private Request(@NonNull RequestType type, @NonNull String requestId, UUID service, UUID characteristic, UUID descriptor, byte[] value) {
@@ -72,6 +95,18 @@ public class Request {
         return new Request(RequestType.WRITE_CHARACTERISTIC, requestId, service, characteristic, null, value);
     }
     
+    static Request newWriteCharacteristicRequest(@NonNull String requestId, UUID service, UUID characteristic, @NonNull ByteBuffer data) {
+        Request request = new Request(RequestType.WRITE_CHARACTERISTIC, requestId, service, characteristic, null, null);
+        request.data = data;
+        return request;
+    }
+    
+    static Request newTransactionRequest(@NonNull String requestId, @NonNull Transaction transaction) {
+        Request request = new Request(RequestType.TRANSACTION, requestId, null, null, null, null);
+        request.transaction = transaction;
+        return request;
+    }
+    
     static Request newReadRssiRequest(@NonNull String requestId) {
         return new Request(RequestType.READ_RSSI, requestId, null, null, null, null);
     }
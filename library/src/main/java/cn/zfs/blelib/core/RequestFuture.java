@@ -0,0 +1,246 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 描述: 请求的完成句柄，由连接的请求方法返回。结果在蓝牙回调中直接设置，不经过EventBus，之后原有的事件照常发布。
+ * 回调在蓝牙回调线程执行，添加回调时请求已完成则在当前线程立即执行，回调中不要做耗时操作
+ */
+public class RequestFuture<T> implements Future<T> {
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCEEDED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private final BaseConnection connection;
+    private final Request request;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private List<Callback<T>> callbacks;
+    private int state = STATE_PENDING;
+    private T result;
+    private int failType = -1;
+
+    public interface Callback<T> {
+        /**
+         * 请求成功
+         * @param result 读特征值、读描述符为读到的值；写特征值为写入的值，以ByteBuffer写入时为null；读信号强度为rssi；
+         *               修改MTU为协商后的MTU；开关通知为开启状态
+         */
+        void onSuccess(@NonNull String requestId, T result);
+
+        /**
+         * 请求失败或被取消
+         * @param failType 同{@link IConnection}中的REQUEST_FAIL_TYPE_*
+         */
+        void onFailure(@NonNull String requestId, int failType);
+    }
+
+    /**
+     * 请求失败时{@link #get()}抛出的{@link ExecutionException}的原因
+     */
+    public static class RequestFailedException extends Exception {
+        private final int failType;
+
+        RequestFailedException(String requestId, int failType) {
+            super("request failed, requestId: " + requestId + ", failType: " + failType);
+            this.failType = failType;
+        }
+
+        public int getFailType() {
+            return failType;
+        }
+    }
+
+    RequestFuture(@NonNull BaseConnection connection, @NonNull Request request) {
+        this.connection = connection;
+        this.request = request;
+    }
+
+    @NonNull
+    public String getRequestId() {
+        return request.requestId;
+    }
+
+    @NonNull
+    public Request.RequestType getRequestType() {
+        return request.type;
+    }
+
+    /**
+     * 添加回调
+     */
+    public RequestFuture<T> addCallback(@NonNull Callback<T> callback) {
+        synchronized (this) {
+            if (state == STATE_PENDING) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<>(1);
+                }
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        dispatch(callback);
+        return this;
+    }
+
+    /**
+     * 取消请求。还在排队的请求从队列移除，并以{@link IConnection#REQUEST_FAIL_TYPE_REQUEST_CANCELLED}发布请求失败事件；
+     * 已在执行的请求无法中止，只是不再通知此句柄
+     *
+     * @param mayInterruptIfRunning 无作用
+     * @return 已完成的请求返回false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!setCancelled()) {
+            return false;
+        }
+        connection.cancel(request);
+        return true;
+    }
+
+    /**
+     * 设置标签，可通过{@link BaseConnection#cancelRequestsByTag(Object)}取消同一标签的所有排队中的请求，如离开页面时。
+     * 应在调用请求方法后立即设置
+     */
+    public RequestFuture<T> setTag(Object tag) {
+        request.tag = tag;
+        return this;
+    }
+
+    public Object getTag() {
+        return request.tag;
+    }
+
+    /**
+     * 设置截止时间，到时仍在排队的请求出队时直接以{@link IConnection#REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败，不再执行。
+     * 已开始执行的请求不受影响，队列空闲时请求在入队时就已开始执行，此时设置无效。需要确保生效时应使用请求方法的deadlineMillis参数，
+     * 入队时即检查
+     *
+     * @param deadlineMillis 截止时间，同{@link System#currentTimeMillis()}，0为不限
+     */
+    public RequestFuture<T> setDeadline(long deadlineMillis) {
+        request.deadline = Math.max(0, deadlineMillis);
+        return this;
+    }
+
+    /**
+     * 设置从现在起的有效时长，见{@link #setDeadline(long)}
+     */
+    public RequestFuture<T> setExpireAfter(long duration, @NonNull TimeUnit unit) {
+        return setDeadline(System.currentTimeMillis() + unit.toMillis(duration));
+    }
+
+    public long getDeadline() {
+        return request.deadline;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != STATE_PENDING;
+    }
+
+    public synchronized boolean isSuccessful() {
+        return state == STATE_SUCCEEDED;
+    }
+
+    /**
+     * 失败类型，未失败时为-1
+     */
+    public synchronized int getFailType() {
+        return failType;
+    }
+
+    /**
+     * 等待请求完成，不要在主线程或蓝牙回调线程调用
+     *
+     * @throws ExecutionException 请求失败，原因为{@link RequestFailedException}
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    /**
+     * 限时等待请求完成，超时不影响请求本身，需要放弃请求时调用{@link #cancel(boolean)}
+     */
+    @Override
+    public T get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        switch(state) {
+            case STATE_SUCCEEDED:
+                return result;
+            case STATE_CANCELLED:
+                throw new CancellationException();
+            default:
+                throw new ExecutionException(new RequestFailedException(request.requestId, failType));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void complete(Object result) {
+        finish(STATE_SUCCEEDED, (T) result, -1);
+    }
+
+    boolean setCancelled() {
+        return finish(STATE_CANCELLED, null, IConnection.REQUEST_FAIL_TYPE_REQUEST_CANCELLED);
+    }
+
+    void fail(int failType) {
+        finish(STATE_FAILED, null, failType);
+    }
+
+    private boolean finish(int state, T result, int failType) {
+        List<Callback<T>> list;
+        synchronized (this) {
+            if (this.state != STATE_PENDING) {
+                return false;
+            }
+            this.state = state;
+            this.result = result;
+            this.failType = failType;
+            list = callbacks;
+            callbacks = null;
+        }
+        latch.countDown();
+        if (list != null) {
+            for (Callback<T> callback : list) {
+                dispatch(callback);
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(Callback<T> callback) {
+        try {
+            if (state == STATE_SUCCEEDED) {
+                callback.onSuccess(request.requestId, result);
+            } else {
+                callback.onFailure(request.requestId, failType);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
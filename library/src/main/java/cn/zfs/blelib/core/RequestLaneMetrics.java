@@ -0,0 +1,98 @@
+package cn.zfs.blelib.core;
+
+/**
+ * 描述: 某个优先级请求队列的统计快照
+ */
+public class RequestLaneMetrics {
+    private final Request.Priority priority;
+    private final int depth;
+    private final int maxDepth;
+    private final long enqueuedCount;
+    private final long dequeuedCount;
+    private final long droppedCount;
+    private final long starvedCount;
+    private final long maxWaitMillis;
+    private final long totalWaitMillis;
+
+    RequestLaneMetrics(Request.Priority priority, int depth, int maxDepth, long enqueuedCount, long dequeuedCount,
+                       long droppedCount, long starvedCount, long maxWaitMillis, long totalWaitMillis) {
+        this.priority = priority;
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.enqueuedCount = enqueuedCount;
+        this.dequeuedCount = dequeuedCount;
+        this.droppedCount = droppedCount;
+        this.starvedCount = starvedCount;
+        this.maxWaitMillis = maxWaitMillis;
+        this.totalWaitMillis = totalWaitMillis;
+    }
+
+    public Request.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 当前排队的请求数
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 排队请求数的最大值
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount;
+    }
+
+    public long getDequeuedCount() {
+        return dequeuedCount;
+    }
+
+    /**
+     * 队列满时按{@link ConnectionConfig.OverflowPolicy#DROP_OLDEST}被丢弃的请求数
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 因等待过久而提前执行的次数
+     */
+    public long getStarvedCount() {
+        return starvedCount;
+    }
+
+    /**
+     * 出队请求的最长排队时间
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 出队请求的平均排队时间
+     */
+    public long getAverageWaitMillis() {
+        return dequeuedCount == 0 ? 0 : totalWaitMillis / dequeuedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestLaneMetrics{" +
+                "priority=" + priority +
+                ", depth=" + depth +
+                ", maxDepth=" + maxDepth +
+                ", enqueuedCount=" + enqueuedCount +
+                ", dequeuedCount=" + dequeuedCount +
+                ", droppedCount=" + droppedCount +
+                ", starvedCount=" + starvedCount +
+                ", maxWaitMillis=" + maxWaitMillis +
+                ", averageWaitMillis=" + getAverageWaitMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,170 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 描述: 请求队列，基于可扩容的环形数组，入队和出队都是O(1)，不随队列长度移动元素。非线程安全，由连接加锁访问
+ */
+class RequestQueue implements Iterable<Request> {
+    private static final int INITIAL_CAPACITY = 16;//2的幂
+
+    interface Condition {
+        boolean accept(@NonNull Request request);
+    }
+
+    private Request[] elements = new Request[INITIAL_CAPACITY];
+    private int head;
+    private int size;
+
+    void add(@NonNull Request request) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = request;
+        size++;
+    }
+
+    /**
+     * 取出队首请求
+     * @return 队列为空时返回null
+     */
+    Request poll() {
+        if (size == 0) {
+            return null;
+        }
+        Request request = elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return request;
+    }
+
+    Request peek() {
+        return size == 0 ? null : elements[head];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            elements[(head + i) & (elements.length - 1)] = null;
+        }
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * 移除所有满足条件的请求，剩下的请求保持原顺序，一次遍历完成
+     * @return 被移除的请求
+     */
+    @NonNull
+    List<Request> removeAll(@NonNull Condition condition) {
+        List<Request> removed = new ArrayList<>();
+        int mask = elements.length - 1;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Request request = elements[(head + i) & mask];
+            if (condition.accept(request)) {
+                removed.add(request);
+            } else {
+                elements[(head + kept) & mask] = request;
+                kept++;
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            elements[(head + i) & mask] = null;
+        }
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * 查找第一个满足条件的请求
+     * @return 没有时返回null
+     */
+    Request find(@NonNull Condition condition) {
+        int mask = elements.length - 1;
+        for (int i = 0; i < size; i++) {
+            Request request = elements[(head + i) & mask];
+            if (condition.accept(request)) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 原位置替换请求，保持排队顺序
+     * @return 队列中没有oldRequest时返回false
+     */
+    boolean replace(@NonNull Request oldRequest, @NonNull Request newRequest) {
+        int mask = elements.length - 1;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) & mask;
+            if (elements[index] == oldRequest) {
+                elements[index] = newRequest;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 移除指定类型的请求
+     */
+    @NonNull
+    List<Request> removeByType(@NonNull final Request.RequestType type) {
+        return removeAll(new Condition() {
+            @Override
+            public boolean accept(@NonNull Request request) {
+                return request.type == type;
+            }
+        });
+    }
+
+    private void grow() {
+        Request[] newElements = new Request[elements.length << 1];
+        //按队列顺序复制到新数组开头
+        int firstPart = Math.min(size, elements.length - head);
+        System.arraycopy(elements, head, newElements, 0, firstPart);
+        System.arraycopy(elements, 0, newElements, firstPart, size - firstPart);
+        elements = newElements;
+        head = 0;
+    }
+
+    @Override
+    public Iterator<Request> iterator() {
+        return new Iterator<Request>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Request next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return elements[(head + index++) & (elements.length - 1)];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package cn.zfs.blelib.core;
+
+/**
+ * 描述: 请求队列总体的深度和溢出统计快照
+ */
+public class RequestQueueMetrics {
+    private final int depth;
+    private final int highWaterMark;
+    private final int capacity;
+    private final long rejectedCount;
+    private final long droppedCount;
+    private final long blockedCount;
+    private final boolean congested;
+
+    RequestQueueMetrics(int depth, int highWaterMark, int capacity, long rejectedCount, long droppedCount, long blockedCount, boolean congested) {
+        this.depth = depth;
+        this.highWaterMark = highWaterMark;
+        this.capacity = capacity;
+        this.rejectedCount = rejectedCount;
+        this.droppedCount = droppedCount;
+        this.blockedCount = blockedCount;
+        this.congested = congested;
+    }
+
+    /**
+     * 当前排队的请求数
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 排队请求数的最大值
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * 队列容量，0为不限
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 因队列已满被拒绝的请求数，包括阻塞等待超时的
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * 为新请求让出位置而被丢弃的请求数
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 入队时阻塞等待的次数
+     */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public boolean isCongested() {
+        return congested;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestQueueMetrics{" +
+                "depth=" + depth +
+                ", highWaterMark=" + highWaterMark +
+                ", capacity=" + capacity +
+                ", rejectedCount=" + rejectedCount +
+                ", droppedCount=" + droppedCount +
+                ", blockedCount=" + blockedCount +
+                ", congested=" + congested +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+package cn.zfs.blelib.core;
+
+/**
+ * 描述: 某类请求的往返时间和超时统计快照
+ */
+public class RequestTimingMetrics {
+    private final Request.RequestType type;
+    private final long sampleCount;
+    private final long timeoutCount;
+    private final float smoothedRttMillis;
+    private final float rttDeviationMillis;
+    private final long maxRttMillis;
+    private final long timeoutMillis;
+
+    RequestTimingMetrics(Request.RequestType type, long sampleCount, long timeoutCount, float smoothedRttMillis,
+                         float rttDeviationMillis, long maxRttMillis, long timeoutMillis) {
+        this.type = type;
+        this.sampleCount = sampleCount;
+        this.timeoutCount = timeoutCount;
+        this.smoothedRttMillis = smoothedRttMillis;
+        this.rttDeviationMillis = rttDeviationMillis;
+        this.maxRttMillis = maxRttMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public Request.RequestType getType() {
+        return type;
+    }
+
+    /**
+     * 收到响应的次数
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * 超时次数
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * 平滑往返时间
+     */
+    public float getSmoothedRttMillis() {
+        return smoothedRttMillis;
+    }
+
+    /**
+     * 往返时间的平均偏差
+     */
+    public float getRttDeviationMillis() {
+        return rttDeviationMillis;
+    }
+
+    public long getMaxRttMillis() {
+        return maxRttMillis;
+    }
+
+    /**
+     * 最近一次使用的超时时长
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTimingMetrics{" +
+                "type=" + type +
+                ", sampleCount=" + sampleCount +
+                ", timeoutCount=" + timeoutCount +
+                ", smoothedRttMillis=" + smoothedRttMillis +
+                ", rttDeviationMillis=" + rttDeviationMillis +
+                ", maxRttMillis=" + maxRttMillis +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
@@ -0,0 +1,91 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 按请求类型估算往返时间并计算超时，方法同TCP的RTO：平滑往返时间加4倍偏差，超时后退避加倍，
+ * 收到新的往返时间后恢复。同时记录超时次数等统计
+ */
+class RoundTripEstimator {
+    private static final int TYPE_COUNT = Request.RequestType.values().length;
+    private static final int MAX_BACKOFF = 8;
+
+    private final float[] srtts = new float[TYPE_COUNT];
+    private final float[] rttvars = new float[TYPE_COUNT];
+    private final int[] backoffs = new int[TYPE_COUNT];
+    private final long[] samples = new long[TYPE_COUNT];
+    private final long[] timeouts = new long[TYPE_COUNT];
+    private final long[] maxRtts = new long[TYPE_COUNT];
+    private final long[] lastTimeouts = new long[TYPE_COUNT];//最近一次使用的超时时长
+
+    RoundTripEstimator() {
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            backoffs[i] = 1;
+        }
+    }
+
+    /**
+     * 记录一次往返时间
+     */
+    synchronized void sample(@NonNull Request.RequestType type, long rttMillis) {
+        int i = type.ordinal();
+        if (rttMillis < 0) {
+            return;
+        }
+        if (samples[i] == 0) {
+            srtts[i] = rttMillis;
+            rttvars[i] = rttMillis / 2f;
+        } else {
+            rttvars[i] = 0.75f * rttvars[i] + 0.25f * Math.abs(srtts[i] - rttMillis);
+            srtts[i] = 0.875f * srtts[i] + 0.125f * rttMillis;
+        }
+        samples[i]++;
+        backoffs[i] = 1;
+        if (rttMillis > maxRtts[i]) {
+            maxRtts[i] = rttMillis;
+        }
+    }
+
+    /**
+     * 请求超时，之后的超时时长加倍
+     */
+    synchronized void onTimeout(@NonNull Request.RequestType type) {
+        int i = type.ordinal();
+        timeouts[i]++;
+        if (backoffs[i] < MAX_BACKOFF) {
+            backoffs[i] <<= 1;
+        }
+    }
+
+    /**
+     * 计算请求的超时时长
+     */
+    synchronized long getTimeoutMillis(@NonNull Request.RequestType type, @NonNull ConnectionConfig config) {
+        int i = type.ordinal();
+        long timeout = config.getRequestTimeoutMillis(type);
+        if (config.adaptiveRequestTimeout && samples[i] > 0) {
+            long rto = (long) (srtts[i] + Math.max(1, 4 * rttvars[i])) * backoffs[i];
+            timeout = Math.max(config.minAdaptiveTimeoutMillis, Math.min(config.maxAdaptiveTimeoutMillis, rto));
+        }
+        lastTimeouts[i] = timeout;
+        return timeout;
+    }
+
+    @NonNull
+    synchronized RequestTimingMetrics getMetrics(@NonNull Request.RequestType type) {
+        int i = type.ordinal();
+        return new RequestTimingMetrics(type, samples[i], timeouts[i], srtts[i], rttvars[i], maxRtts[i], lastTimeouts[i]);
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            srtts[i] = 0;
+            rttvars[i] = 0;
+            backoffs[i] = 1;
+            samples[i] = 0;
+            timeouts[i] = 0;
+            maxRtts[i] = 0;
+            lastTimeouts[i] = 0;
+        }
+    }
+}
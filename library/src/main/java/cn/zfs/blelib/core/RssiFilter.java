@@ -0,0 +1,91 @@
+package cn.zfs.blelib.core;
+
+/**
+ * 描述: 信号强度平滑参数。可选指数加权移动平均或一维卡尔曼滤波，并按1米处的信号强度估算距离
+ */
+public class RssiFilter {
+    /** 指数加权移动平均 */
+    public static final int TYPE_EWMA = 0;
+    /** 一维卡尔曼滤波 */
+    public static final int TYPE_KALMAN = 1;
+
+    int type;
+    float alpha;
+    float processNoise;
+    float measurementNoise;
+    int measuredPower = -59;
+    float pathLossExponent = 2;
+
+    private RssiFilter(int type) {
+        this.type = type;
+    }
+
+    /**
+     * 指数加权移动平均
+     *
+     * @param alpha 新值的权重，0~1，越小越平滑
+     */
+    public static RssiFilter newEwma(float alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        RssiFilter filter = new RssiFilter(TYPE_EWMA);
+        filter.alpha = alpha;
+        return filter;
+    }
+
+    /**
+     * 一维卡尔曼滤波
+     *
+     * @param processNoise 过程噪声，设备移动越快应越大，如0.05
+     * @param measurementNoise 测量噪声，信号波动越大应越大，如4
+     */
+    public static RssiFilter newKalman(float processNoise, float measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("noise must be positive");
+        }
+        RssiFilter filter = new RssiFilter(TYPE_KALMAN);
+        filter.processNoise = processNoise;
+        filter.measurementNoise = measurementNoise;
+        return filter;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getMeasuredPower() {
+        return measuredPower;
+    }
+
+    /**
+     * 设备未提供校准值（{@link Device#measuredPower}或广播中的发射功率）时，用于估算距离的1米处信号强度，默认-59
+     */
+    public RssiFilter setMeasuredPower(int measuredPower) {
+        this.measuredPower = measuredPower;
+        return this;
+    }
+
+    public float getPathLossExponent() {
+        return pathLossExponent;
+    }
+
+    /**
+     * 路径损耗指数，空旷环境为2，室内一般为2~4，默认2
+     */
+    public RssiFilter setPathLossExponent(float pathLossExponent) {
+        this.pathLossExponent = pathLossExponent;
+        return this;
+    }
+
+    /**
+     * 按对数距离路径损耗模型估算距离
+     *
+     * @param rssi 信号强度
+     * @param measuredPower 1米处的信号强度
+     * @return 距离，米
+     */
+    public double estimateDistance(float rssi, int measuredPower) {
+        return Math.pow(10, (measuredPower - rssi) / (10 * pathLossExponent));
+    }
+}
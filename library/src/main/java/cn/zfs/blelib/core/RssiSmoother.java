@@ -0,0 +1,111 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 按地址保存信号强度的平滑状态。地址和状态都放在开放寻址的基本类型数组中，更新时不装箱、不分配对象
+ */
+class RssiSmoother {
+    private static final int INITIAL_CAPACITY = 64;//2的幂
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private float[] estimates = new float[INITIAL_CAPACITY];
+    private float[] covariances = new float[INITIAL_CAPACITY];//卡尔曼滤波的估计误差
+    private int size;
+
+    /**
+     * 加入一次测量
+     * @return 平滑后的信号强度
+     */
+    synchronized float update(@NonNull String addr, int rssi, @NonNull RssiFilter filter) {
+        int i = indexOf(addr);
+        if (keys[i] == null) {
+            //第一次测量直接作为估计值
+            keys[i] = addr;
+            estimates[i] = rssi;
+            covariances[i] = filter.measurementNoise;
+            if (++size > keys.length * 3 / 4) {
+                grow();
+            }
+            return rssi;
+        }
+        float estimate = estimates[i];
+        if (filter.type == RssiFilter.TYPE_KALMAN) {
+            float p = covariances[i] + filter.processNoise;
+            float k = p / (p + filter.measurementNoise);
+            estimate += k * (rssi - estimate);
+            covariances[i] = (1 - k) * p;
+        } else {
+            estimate += filter.alpha * (rssi - estimate);
+        }
+        estimates[i] = estimate;
+        return estimate;
+    }
+
+    synchronized void remove(@NonNull String addr) {
+        int i = indexOf(addr);
+        if (keys[i] == null) {
+            return;
+        }
+        keys[i] = null;
+        size--;
+        //后面同一探测序列上的元素往前移，保证查找不中断
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == null) {
+                return;
+            }
+            int home = hash(keys[j]) & mask;
+            //home不在(i, j]区间内时可以移到i
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                keys[i] = keys[j];
+                estimates[i] = estimates[j];
+                covariances[i] = covariances[j];
+                keys[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = null;
+        }
+        size = 0;
+    }
+
+    //返回地址所在位置，不存在时返回可插入的空位
+    private int indexOf(String addr) {
+        int mask = keys.length - 1;
+        int i = hash(addr) & mask;
+        while (keys[i] != null && !keys[i].equals(addr)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        float[] oldEstimates = estimates;
+        float[] oldCovariances = covariances;
+        int capacity = oldKeys.length << 1;
+        keys = new String[capacity];
+        estimates = new float[capacity];
+        covariances = new float[capacity];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = indexOf(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                estimates[i] = oldEstimates[j];
+                covariances[i] = oldCovariances[j];
+            }
+        }
+    }
+
+    private static int hash(String addr) {
+        int h = addr.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,108 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 描述: 扫描结果录制。把每条原始扫描结果（时间、地址、信号强度、广播内容）以紧凑的二进制格式追加到文件，
+ * 写入经过复用的缓冲区，录制过程中不产生对象分配。可用{@link ScanReplayer}回放
+ * <br>文件格式：文件头 int魔数 + short版本；每条记录 short广播长度(-1为null) + long时间(纳秒，单调时钟) + 6字节地址 + byte信号强度 + 广播内容
+ */
+public class ScanRecorder implements Closeable {
+    static final int MAGIC = 0x424C4543;//BLEC
+    static final short VERSION = 1;
+    static final int RECORD_HEADER_SIZE = 2 + 8 + 6 + 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean closed;
+
+    /**
+     * @param file 录制文件，已存在时在末尾追加
+     */
+    public ScanRecorder(@NonNull File file) throws IOException {
+        channel = new FileOutputStream(file, true).getChannel();
+        if (channel.size() == 0) {
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+        }
+    }
+
+    /**
+     * 追加一条扫描结果
+     * @param addr 设备地址，如"00:11:22:AA:BB:CC"
+     * @param rssi 信号强度
+     * @param scanRecord 广播内容
+     */
+    public synchronized void record(@NonNull String addr, int rssi, byte[] scanRecord) {
+        if (closed) {
+            return;
+        }
+        int length = scanRecord == null ? 0 : scanRecord.length;
+        if (buffer.remaining() < RECORD_HEADER_SIZE + length && !flushBuffer()) {
+            return;
+        }
+        buffer.putShort((short) (scanRecord == null ? -1 : length));
+        buffer.putLong(System.nanoTime());
+        //地址按6个字节存储，不生成中间字符串
+        for (int i = 0; i < 6; i++) {
+            buffer.put((byte) ((hexValue(addr.charAt(i * 3)) << 4) | hexValue(addr.charAt(i * 3 + 1))));
+        }
+        buffer.put((byte) rssi);
+        if (scanRecord != null) {
+            buffer.put(scanRecord);
+        }
+    }
+
+    /**
+     * 把缓冲区中的记录写入文件
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            flushBuffer();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            flushBuffer();
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private boolean flushBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closed = true;
+            return false;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,159 @@
+package cn.zfs.blelib.core;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 描述: 回放{@link ScanRecorder}录制的扫描结果，可按原始速度、加速或不限速回放。
+ * 回放方法会阻塞调用线程，需在子线程调用
+ */
+public class ScanReplayer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Callback {
+        /**
+         * 回放一条扫描结果
+         * @param timestamp 录制时的时间，纳秒，只用于计算间隔
+         */
+        void onScanResult(long timestamp, @NonNull String addr, int rssi, byte[] scanRecord);
+    }
+
+    private final File file;
+    private volatile boolean stopped;
+
+    public ScanReplayer(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * 停止回放
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 回放到{@link Ble#parseScanResult(BluetoothDevice, int, byte[])}，经过完整的扫描处理流程
+     * @param adapter 用于根据地址获取设备
+     * @param speed 回放速度倍数，1为原始速度，小于等于0时不限速
+     * @return 回放的记录条数
+     */
+    public int replayToBle(@NonNull final BluetoothAdapter adapter, float speed) throws IOException {
+        final Map<String, BluetoothDevice> devices = new HashMap<>();
+        return replay(speed, new Callback() {
+            @Override
+            public void onScanResult(long timestamp, @NonNull String addr, int rssi, byte[] scanRecord) {
+                BluetoothDevice device = devices.get(addr);
+                if (device == null) {
+                    device = adapter.getRemoteDevice(addr);
+                    devices.put(addr, device);
+                }
+                Ble.getInstance().parseScanResult(device, rssi, scanRecord);
+            }
+        });
+    }
+
+    /**
+     * 回放
+     * @param speed 回放速度倍数，1为原始速度，小于等于0时不限速
+     * @return 回放的记录条数
+     */
+    public int replay(float speed, @NonNull Callback callback) throws IOException {
+        stopped = false;
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+            fill(channel, buffer);
+            if (buffer.remaining() < 6 || buffer.getInt() != ScanRecorder.MAGIC) {
+                throw new IOException("not a scan capture file: " + file);
+            }
+            buffer.getShort();//版本
+            Map<Long, String> addrCache = new HashMap<>();
+            long firstTimestamp = -1;
+            long startNanos = System.nanoTime();
+            int count = 0;
+            while (!stopped) {
+                if (buffer.remaining() < ScanRecorder.RECORD_HEADER_SIZE && !fill(channel, buffer)) {
+                    break;
+                }
+                buffer.mark();
+                int length = buffer.getShort();
+                if (buffer.remaining() < ScanRecorder.RECORD_HEADER_SIZE - 2 + Math.max(length, 0)) {
+                    buffer.reset();
+                    if (!fill(channel, buffer)) {
+                        break;//文件末尾的不完整记录
+                    }
+                    continue;
+                }
+                long timestamp = buffer.getLong();
+                long addrValue = 0;
+                for (int i = 0; i < 6; i++) {
+                    addrValue = (addrValue << 8) | (buffer.get() & 0xFF);
+                }
+                int rssi = buffer.get();
+                byte[] scanRecord = null;
+                if (length >= 0) {
+                    scanRecord = new byte[length];
+                    buffer.get(scanRecord);
+                }
+                String addr = addrCache.get(addrValue);
+                if (addr == null) {
+                    addr = toAddress(addrValue);
+                    addrCache.put(addrValue, addr);
+                }
+                if (firstTimestamp == -1) {
+                    firstTimestamp = timestamp;
+                }
+                if (speed > 0) {
+                    long dueNanos = startNanos + (long) ((timestamp - firstTimestamp) / speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        try {
+                            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                    }
+                }
+                callback.onScanResult(timestamp, addr, rssi, scanRecord);
+                count++;
+            }
+            return count;
+        } finally {
+            channel.close();
+        }
+    }
+
+    //把缓冲区剩余内容移到开头并从文件继续读取，没有读到新内容时返回false
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.compact();
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0;
+    }
+
+    private static String toAddress(long value) {
+        StringBuilder sb = new StringBuilder(17);
+        for (int i = 5; i >= 0; i--) {
+            int b = (int) ((value >> (i * 8)) & 0xFF);
+            if (b < 0x10) {
+                sb.append('0');
+            }
+            sb.append(Integer.toHexString(b).toUpperCase());
+            if (i > 0) {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,97 @@
+package cn.zfs.blelib.core;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.zfs.blelib.callback.BatchScanListener;
+import cn.zfs.blelib.callback.ScanListener;
+
+/**
+ * 描述: 扫描结果分发。在扫描线程收集结果并按地址合并，每帧只向主线程投递一次
+ */
+class ScanResultDispatcher {
+    private final Handler mainThreadHandler;
+    private final List<ScanListener> scanListeners;
+    private Map<String, Device> pendingDevices = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    ScanResultDispatcher(@NonNull Handler mainThreadHandler, @NonNull List<ScanListener> scanListeners) {
+        this.mainThreadHandler = mainThreadHandler;
+        this.scanListeners = scanListeners;
+    }
+
+    /**
+     * 添加扫描结果，在下一帧统一回调
+     * @param frameMillis 帧间隔，毫秒。小于等于0时尽快回调
+     */
+    void dispatch(@NonNull Device device, int frameMillis) {
+        synchronized (this) {
+            pendingDevices.put(device.addr, device);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        if (frameMillis > 0) {
+            mainThreadHandler.postDelayed(flushRunnable, frameMillis);
+        } else {
+            mainThreadHandler.post(flushRunnable);
+        }
+    }
+
+    /**
+     * 立即投递已收集的结果，不等待当前帧结束。用于扫描停止前，保证结果先于停止回调到达
+     */
+    void flushNow() {
+        synchronized (this) {
+            if (!flushScheduled) {
+                return;
+            }
+        }
+        mainThreadHandler.removeCallbacks(flushRunnable);
+        mainThreadHandler.post(flushRunnable);
+    }
+
+    /**
+     * 丢弃未投递的结果
+     */
+    void clear() {
+        synchronized (this) {
+            pendingDevices.clear();
+            flushScheduled = false;
+        }
+        mainThreadHandler.removeCallbacks(flushRunnable);
+    }
+
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Map<String, Device> devices;
+            synchronized (ScanResultDispatcher.this) {
+                flushScheduled = false;
+                if (pendingDevices.isEmpty()) {
+                    return;
+                }
+                devices = pendingDevices;
+                pendingDevices = new LinkedHashMap<>();
+            }
+            List<Device> list = Collections.unmodifiableList(new ArrayList<>(devices.values()));
+            for (ScanListener listener : scanListeners) {
+                if (listener instanceof BatchScanListener) {
+                    ((BatchScanListener) listener).onScanResults(list);
+                } else {
+                    //兼容单个设备回调
+                    for (Device device : list) {
+                        listener.onScanResult(device);
+                    }
+                }
+            }
+        }
+    };
+}
@@ -0,0 +1,192 @@
+package cn.zfs.blelib.core;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * 描述: 扫描调度。按扫描窗口和暂停时长交替开关扫描，根据每个窗口收到的结果调整暂停时长，
+ * 并控制启动次数不超过系统限制（30秒内最多5次，超过后系统静默不返回结果），
+ * 长时间扫描定期重启，避免被系统降级为opportunistic扫描
+ */
+class ScanScheduler {
+    private static final int START_LIMIT = 5;
+    private static final long START_LIMIT_WINDOW_MILLIS = 30000;
+    //系统在扫描持续30分钟后降级为opportunistic，提前重启
+    private static final long ROTATE_MILLIS = 25 * 60000;
+    //自适应暂停的最大倍数
+    private static final int MAX_PAUSE_FACTOR = 8;
+
+    interface Callback {
+        /** 真正开启扫描 */
+        void onStartScan();
+
+        /** 真正停止扫描 */
+        void onStopScan();
+    }
+
+    private final Handler handler;
+    private final Callback callback;
+    private final long[] startTimes = new long[START_LIMIT];//最近几次启动的时间，环形记录
+    private int startIndex;
+    private int startCount;
+    private boolean running;//是否处于扫描调度中
+    private boolean scanning;//是否真正在扫描
+    private int windowMillis;
+    private int pauseMillis;
+    private int currentPauseMillis;
+    private boolean adaptive;
+    private volatile int resultCount;//当前窗口收到的结果数
+
+    ScanScheduler(@NonNull Handler handler, @NonNull Callback callback) {
+        this.handler = handler;
+        this.callback = callback;
+    }
+
+    /**
+     * 开始调度
+     * @param windowMillis 每次扫描的时长
+     * @param pauseMillis 两次扫描之间的暂停时长，小于等于0时连续扫描
+     * @param adaptive 是否根据收到的结果调整暂停时长
+     */
+    synchronized void start(int windowMillis, int pauseMillis, boolean adaptive) {
+        if (running) {
+            return;
+        }
+        running = true;
+        this.windowMillis = windowMillis;
+        this.pauseMillis = pauseMillis;
+        this.adaptive = adaptive;
+        currentPauseMillis = pauseMillis;
+        tryStartScan();
+    }
+
+    /**
+     * 停止调度
+     */
+    synchronized void stop() {
+        running = false;
+        handler.removeCallbacks(startRunnable);
+        handler.removeCallbacks(stopRunnable);
+        handler.removeCallbacks(restartRunnable);
+        if (scanning) {
+            scanning = false;
+            callback.onStopScan();
+        }
+    }
+
+    /**
+     * 重启扫描，使新的扫描参数生效。同样受启动次数限制，没有可用的启动次数时保持当前扫描，等到可以启动时再重启，
+     * 不会停止扫描后等待
+     */
+    synchronized void restart() {
+        if (!running || !scanning) {
+            return;
+        }
+        long wait = getStartWait(SystemClock.elapsedRealtime());
+        if (wait > 0) {
+            //多次重启合并为一次
+            handler.removeCallbacks(restartRunnable);
+            handler.postDelayed(restartRunnable, wait);
+            Ble.println(ScanScheduler.class, Log.DEBUG, "scan restart deferred! [wait: %d ms]", wait);
+            return;
+        }
+        handler.removeCallbacks(restartRunnable);
+        handler.removeCallbacks(stopRunnable);
+        scanning = false;
+        callback.onStopScan();
+        tryStartScan();
+    }
+
+    synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 收到扫描结果
+     */
+    void onScanResult() {
+        resultCount++;
+    }
+
+    //距离下一次可以启动的时长，0为现在就可以启动
+    private long getStartWait(long now) {
+        if (startCount < START_LIMIT) {
+            return 0;
+        }
+        //环形记录中下一个位置即最早的一次启动
+        return Math.max(0, startTimes[startIndex] + START_LIMIT_WINDOW_MILLIS - now);
+    }
+
+    private void tryStartScan() {
+        if (!running || scanning) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long wait = getStartWait(now);
+        if (wait > 0) {
+            Ble.println(ScanScheduler.class, Log.DEBUG, "scan start deferred! [wait: %d ms]", wait);
+            handler.postDelayed(startRunnable, wait);
+            return;
+        }
+        if (startCount < START_LIMIT) {
+            startCount++;
+        }
+        startTimes[startIndex] = now;
+        startIndex = (startIndex + 1) % START_LIMIT;
+        scanning = true;
+        resultCount = 0;
+        callback.onStartScan();
+        long window = pauseMillis > 0 ? Math.min(windowMillis, ROTATE_MILLIS) : ROTATE_MILLIS;
+        handler.postDelayed(stopRunnable, window);
+    }
+
+    private void pauseScan() {
+        if (!running || !scanning) {
+            return;
+        }
+        if (pauseMillis <= 0) {//连续扫描时只是定期重启，同样不停下来等待启动次数
+            restart();
+            return;
+        }
+        scanning = false;
+        callback.onStopScan();
+        if (adaptive) {
+            //窗口内没有结果则逐步延长暂停，有结果则恢复
+            if (resultCount == 0) {
+                currentPauseMillis = Math.min(currentPauseMillis * 2, pauseMillis * MAX_PAUSE_FACTOR);
+            } else {
+                currentPauseMillis = pauseMillis;
+            }
+        }
+        handler.postDelayed(startRunnable, currentPauseMillis);
+    }
+
+    private Runnable startRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScanScheduler.this) {
+                tryStartScan();
+            }
+        }
+    };
+
+    private Runnable restartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScanScheduler.this) {
+                restart();
+            }
+        }
+    };
+
+    private Runnable stopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ScanScheduler.this) {
+                pauseScan();
+            }
+        }
+    };
+}
@@ -0,0 +1,121 @@
+package cn.zfs.blelib.core;
+
+import android.bluetooth.BluetoothDevice;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cn.zfs.blelib.callback.ScanListener;
+
+/**
+ * 描述: 扫描会话。每个需要扫描的使用方（界面、搜索重连的连接、后台监听等）各自获取会话，
+ * 所有会话共用一次系统扫描，最后一个会话释放后才停止扫描
+ */
+public class ScanSession {
+    private final List<BleScanFilter> filters;
+    private final ScanListener listener;
+    private final ScanResultDispatcher dispatcher;
+    private final boolean internal;//库内部使用的会话，如搜索重连，不算作使用方的扫描
+    private volatile boolean released;
+    //每个设备上次回调给本会话时的设备和信号强度，各会话分别判断是否需要回调
+    private final Map<String, Notified> notified = new HashMap<>();
+
+    private static class Notified {
+        Device device;
+        int rssi;
+    }
+
+    ScanSession(List<BleScanFilter> filters, ScanListener listener, ScanResultDispatcher dispatcher) {
+        this(filters, listener, dispatcher, false);
+    }
+
+    ScanSession(List<BleScanFilter> filters, ScanListener listener, ScanResultDispatcher dispatcher, boolean internal) {
+        this.internal = internal;
+        this.filters = filters == null ? Collections.<BleScanFilter>emptyList() : Collections.unmodifiableList(new ArrayList<>(filters));
+        this.listener = listener;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * 会话的过滤条件，为空时接收所有设备
+     */
+    @NonNull
+    public List<BleScanFilter> getFilters() {
+        return filters;
+    }
+
+    public ScanListener getListener() {
+        return listener;
+    }
+
+    /**
+     * 释放会话，所有会话都释放后停止扫描
+     */
+    public void release() {
+        Ble.getInstance().releaseScanSession(this);
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    boolean isInternal() {
+        return internal;
+    }
+
+    void setReleased() {
+        released = true;
+    }
+
+    ScanResultDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * 设备是否需要回调给本会话，需要时记为已回调。本会话还未回调过该设备、设备因广播内容变化重新生成或信号强度变化达到阈值时需要回调
+     * @param device 设备表中的设备
+     * @param threshold 信号强度变化阈值
+     */
+    synchronized boolean shouldNotify(@NonNull Device device, int rssi, int threshold) {
+        Notified n = notified.get(device.addr);
+        if (n == null) {
+            n = new Notified();
+            notified.put(device.addr, n);
+        } else if (n.device == device && Math.abs(rssi - n.rssi) < threshold) {
+            return false;
+        }
+        n.device = device;
+        n.rssi = rssi;
+        return true;
+    }
+
+    /**
+     * 设备离开或被移出设备表，下次扫描到时重新回调
+     */
+    synchronized void removeNotified(@NonNull String addr) {
+        notified.remove(addr);
+    }
+
+    synchronized void clearNotified() {
+        notified.clear();
+    }
+
+    /**
+     * 是否满足会话的过滤条件，满足其中一个即可
+     */
+    boolean matches(@NonNull BluetoothDevice device, @NonNull AdvertisingData advData) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (BleScanFilter filter : filters) {
+            if (filter.matches(device, advData)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
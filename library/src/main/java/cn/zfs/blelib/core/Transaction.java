@@ -0,0 +1,128 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 描述: 事务，一组连续执行的请求。提交后作为一个请求排队，开始执行后中间不会插入其他请求，任一步失败则放弃剩余步骤。
+ * 可使用可靠写入，所有写入在最后一起生效，失败时全部放弃。步骤不单独回调和发布事件，全部完成后回调一次
+ * {@link TransactionResult}，失败时以事务的请求码发布一次请求失败事件
+ */
+public class Transaction {
+    private final BaseConnection connection;
+    final Request request;
+    final List<Request> steps = new ArrayList<>();
+    boolean reliableWrite;
+    private Request.Priority priority = Request.Priority.INTERACTIVE;
+    private long deadlineMillis;
+    private boolean hasEmptyValue;
+    private boolean committed;
+    //-----执行时用到-----
+    int stepIndex = -1;
+    long startNanos;
+    long stepStartNanos;
+    long[] stepDurations;
+    Object[] stepResults;
+    boolean reliableWriteBegun;
+    boolean finished;
+    //-------------------
+
+    Transaction(@NonNull BaseConnection connection, @NonNull String requestId) {
+        this.connection = connection;
+        request = Request.newTransactionRequest(requestId, this);
+    }
+
+    @NonNull
+    public String getRequestId() {
+        return request.requestId;
+    }
+
+    public Transaction readCharacteristic(UUID service, UUID characteristic) {
+        return addStep(Request.newReadCharacteristicRequest(request.requestId, service, characteristic));
+    }
+
+    public Transaction readDescriptor(UUID service, UUID characteristic, UUID descriptor) {
+        return addStep(Request.newReadDescriptorRequest(request.requestId, service, characteristic, descriptor));
+    }
+
+    /**
+     * @param value 写入的值，为空时提交的事务以{@link IConnection#REQUEST_FAIL_TYPE_VALUE_IS_NULL_OR_EMPTY}失败
+     */
+    public Transaction writeCharacteristic(UUID service, UUID characteristic, byte[] value) {
+        if (value == null || value.length == 0) {
+            hasEmptyValue = true;
+        }
+        return addStep(Request.newWriteCharacteristicRequest(request.requestId, service, characteristic, value));
+    }
+
+    public Transaction toggleNotification(UUID service, UUID characteristic, boolean enable) {
+        return addStep(Request.newToggleNotificationRequest(request.requestId, service, characteristic, enable));
+    }
+
+    public Transaction toggleIndication(UUID service, UUID characteristic, boolean enable) {
+        return addStep(Request.newToggleIndicationRequest(request.requestId, service, characteristic, enable));
+    }
+
+    private Transaction addStep(Request step) {
+        step.transaction = this;
+        steps.add(step);
+        return this;
+    }
+
+    /**
+     * 是否使用可靠写入，开启后写入在事务开始时beginReliableWrite，全部步骤完成后executeReliableWrite，
+     * 中途失败则abortReliableWrite。写入总是等待写入结果。默认不开启
+     */
+    public Transaction setReliableWrite(boolean reliableWrite) {
+        this.reliableWrite = reliableWrite;
+        return this;
+    }
+
+    /**
+     * 事务排队时的优先级，默认{@link Request.Priority#INTERACTIVE}
+     */
+    public Transaction setPriority(@NonNull Request.Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * 截止时间，同{@link System#currentTimeMillis()}，默认0为不限。提交时已过期或排队到截止时间仍未开始的事务
+     * 以{@link IConnection#REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}失败，已开始执行的不受影响
+     */
+    public Transaction setDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /**
+     * 提交事务，每个事务只能提交一次
+     *
+     * @return 请求句柄，结果为各步骤的结果和耗时
+     */
+    @NonNull
+    public RequestFuture<TransactionResult> commit() {
+        synchronized (this) {
+            if (committed) {
+                throw new IllegalStateException("transaction already committed");
+            }
+            committed = true;
+        }
+        stepDurations = new long[steps.size()];
+        stepResults = new Object[steps.size()];
+        return connection.commit(this, priority, deadlineMillis, steps.isEmpty() || hasEmptyValue);
+    }
+
+    @NonNull
+    TransactionResult newResult() {
+        List<TransactionResult.Step> list = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            Request step = steps.get(i);
+            list.add(new TransactionResult.Step(step.type, step.service, step.characteristic, step.descriptor, stepResults[i], stepDurations[i]));
+        }
+        return new TransactionResult(request.requestId, reliableWrite, list, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,104 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 描述: 事务的执行结果，包含各步骤的结果和耗时
+ */
+public class TransactionResult {
+    private final String requestId;
+    private final boolean reliableWrite;
+    private final List<Step> steps;
+    private final long durationNanos;
+
+    TransactionResult(@NonNull String requestId, boolean reliableWrite, @NonNull List<Step> steps, long durationNanos) {
+        this.requestId = requestId;
+        this.reliableWrite = reliableWrite;
+        this.steps = Collections.unmodifiableList(steps);
+        this.durationNanos = durationNanos;
+    }
+
+    public static class Step {
+        private final Request.RequestType type;
+        private final UUID service;
+        private final UUID characteristic;
+        private final UUID descriptor;
+        private final Object value;
+        private final long durationNanos;
+
+        Step(@NonNull Request.RequestType type, UUID service, UUID characteristic, UUID descriptor, Object value, long durationNanos) {
+            this.type = type;
+            this.service = service;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.durationNanos = durationNanos;
+        }
+
+        @NonNull
+        public Request.RequestType getType() {
+            return type;
+        }
+
+        public UUID getService() {
+            return service;
+        }
+
+        public UUID getCharacteristic() {
+            return characteristic;
+        }
+
+        public UUID getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * 读取的值或写入的值
+         */
+        public byte[] getValue() {
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        /**
+         * 开关通知的步骤为开启状态，其他为false
+         */
+        public boolean isEnabled() {
+            return value instanceof Boolean && (Boolean) value;
+        }
+
+        /**
+         * 从开始执行到收到响应的时长
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+    }
+
+    @NonNull
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public boolean isReliableWrite() {
+        return reliableWrite;
+    }
+
+    /**
+     * 按添加顺序的步骤
+     */
+    @NonNull
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * 从第一步开始执行到事务完成的时长，使用可靠写入时包含executeReliableWrite
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+}
@@ -0,0 +1,74 @@
+package cn.zfs.blelib.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 描述: 分包发送的节拍调度，每个连接一个。按纳秒精度的延时在专用线程上执行下一包，不阻塞回调线程和调用线程，
+ * 并统计实际执行时间相对预定时间的偏差。空闲一段时间后线程自动退出
+ */
+class WritePacer {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private long count;
+    private long totalJitterNanos;
+    private long maxJitterNanos;
+
+    WritePacer(@NonNull final String name) {
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "ble-pacer-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 延时执行
+     * @param delayNanos 延时，纳秒。小于等于0时也在调度线程执行
+     */
+    void schedule(@NonNull final Runnable task, long delayNanos) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        final long due = System.nanoTime() + Math.max(0, delayNanos);
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                record(System.nanoTime() - due);
+                task.run();
+            }
+        }, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void record(long jitterNanos) {
+        count++;
+        totalJitterNanos += jitterNanos;
+        if (jitterNanos > maxJitterNanos) {
+            maxJitterNanos = jitterNanos;
+        }
+    }
+
+    @NonNull
+    synchronized PacingMetrics getMetrics() {
+        return new PacingMetrics(count, count == 0 ? 0 : totalJitterNanos / count, maxJitterNanos);
+    }
+
+    synchronized void resetMetrics() {
+        count = 0;
+        totalJitterNanos = 0;
+        maxJitterNanos = 0;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
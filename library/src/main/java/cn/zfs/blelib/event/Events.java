@@ -9,6 +9,7 @@ import cn.zfs.blelib.core.Device;
 import cn.zfs.blelib.core.GattCharacteristic;
 import cn.zfs.blelib.core.GattDescriptor;
 import cn.zfs.blelib.core.Request;
+import cn.zfs.blelib.core.TransactionResult;
 
 /**
  * 描述: 事件统一管理
@@ -139,6 +140,15 @@ public class Events {
         }
     }
 
+    /**
+     * 已扫描到的设备超过指定时长未再被扫描到，视为离开
+     */
+    public static class DeviceLost extends DeviceEvent<Device> {
+        private DeviceLost(@NonNull Device device) {
+            super(device);
+        }
+    }
+
     /**
      * indication开关状态变化
      */
@@ -209,6 +219,8 @@ public class Events {
          * {@link BaseConnection#REQUEST_FAIL_TYPE_REQUEST_FAILED}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_NULL_CHARACTERISTIC}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_NULL_DESCRIPTOR},
          * <br>{@link BaseConnection#REQUEST_FAIL_TYPE_NULL_SERVICE}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_GATT_STATUS_FAILED}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_GATT_IS_NULL}
          * <br>{@link BaseConnection#REQUEST_FAIL_TYPE_API_LEVEL_TOO_LOW}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_BLUETOOTH_ADAPTER_DISABLED}
+         * <br>{@link BaseConnection#REQUEST_FAIL_TYPE_REQUEST_REPLACED}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_REQUEST_CANCELLED}
+         * <br>{@link BaseConnection#REQUEST_FAIL_TYPE_DEADLINE_EXCEEDED}<br>{@link BaseConnection#REQUEST_FAIL_TYPE_QUEUE_FULL}
          */
         public int failType;
 
@@ -221,6 +233,38 @@ public class Events {
         }
     }
 
+    /**
+     * 事务完成，各步骤均成功
+     */
+    public static class TransactionCompleted extends BothDeviceAndRequestIdEvent<Device> {
+        @NonNull
+        public TransactionResult result;
+
+        private TransactionCompleted(@NonNull Device device, @NonNull String requestId, @NonNull TransactionResult result) {
+            super(device, requestId);
+            this.result = result;
+        }
+    }
+
+    /**
+     * 文件传输进度，按{@link cn.zfs.blelib.core.FileTransfer#setProgressIntervalMillis(int)}的间隔发布
+     */
+    public static class TransferProgress extends BothDeviceAndRequestIdEvent<Device> {
+        /** 已确认写入的位置，续传时使用 */
+        public long offset;
+        /** 文件大小 */
+        public long total;
+        /** 本次传输的平均速率，字节/秒 */
+        public float bytesPerSecond;
+
+        private TransferProgress(@NonNull Device device, @NonNull String requestId, long offset, long total, float bytesPerSecond) {
+            super(device, requestId);
+            this.offset = offset;
+            this.total = total;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+    }
+
     /**
      * 日志事件
      */
@@ -266,6 +310,10 @@ public class Events {
         return new DescriptorRead(device, requestId, descriptor);
     }
 
+    public static DeviceLost newDeviceLost(@NonNull Device device) {
+        return new DeviceLost(device);
+    }
+
     public static IndicationChanged newIndicationChanged(@NonNull Device device, @NonNull String requestId, @NonNull GattDescriptor descriptor, boolean isEnabled) {
         return new IndicationChanged(device, requestId, descriptor, isEnabled);
     }
@@ -285,6 +333,14 @@ public class Events {
     public static RequestFailed newRequestFailed(@NonNull Device device, @NonNull String requestId, @NonNull Request.RequestType requestType, int failType, byte[] src) {
         return new RequestFailed(device, requestId, requestType, failType, src);
     }
+
+    public static TransactionCompleted newTransactionCompleted(@NonNull Device device, @NonNull String requestId, @NonNull TransactionResult result) {
+        return new TransactionCompleted(device, requestId, result);
+    }
+
+    public static TransferProgress newTransferProgress(@NonNull Device device, @NonNull String requestId, long offset, long total, float bytesPerSecond) {
+        return new TransferProgress(device, requestId, offset, total, bytesPerSecond);
+    }
     
     public static LogChanged newLogChanged(String log, int level) {
         return new LogChanged(log, level);
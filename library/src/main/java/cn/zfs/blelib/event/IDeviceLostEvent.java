@@ -0,0 +1,15 @@
+package cn.zfs.blelib.event;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 设备离开事件
+ * 使用方法: 在要监听的类中实现接口，并在方法上添加上@Subscribe注解
+ */
+public interface IDeviceLostEvent {
+
+    /**
+     * 已扫描到的设备超过指定时长未再被扫描到
+     */
+    void onDeviceLost(@NonNull Events.DeviceLost event);
+}
@@ -0,0 +1,15 @@
+package cn.zfs.blelib.event;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 事务完成事件
+ * 使用方法: 在要监听的类中实现接口，并在方法上添加上@Subscribe注解
+ */
+public interface ITransactionCompletedEvent {
+
+    /**
+     * 事务的所有步骤执行成功，失败时发布的是请求失败事件
+     */
+    void onTransactionCompleted(@NonNull Events.TransactionCompleted event);
+}
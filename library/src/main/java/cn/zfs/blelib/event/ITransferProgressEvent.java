@@ -0,0 +1,15 @@
+package cn.zfs.blelib.event;
+
+import android.support.annotation.NonNull;
+
+/**
+ * 描述: 文件传输进度事件
+ * 使用方法: 在要监听的类中实现接口，并在方法上添加上@Subscribe注解
+ */
+public interface ITransferProgressEvent {
+
+    /**
+     * 文件传输进度，传输完成后另有写入成功事件
+     */
+    void onTransferProgress(@NonNull Events.TransferProgress event);
+}
@@ -0,0 +1,129 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比{@link AdvertisingData}与按字段拷贝的解析方式(同ScanRecord.parseFromBytes，每个字段创建数组、UUID和字符串)。
+ * 默认不随test运行，执行gradlew test -Pbenchmark时运行，零拷贝解析更慢时失败并给出两者耗时
+ */
+public class AdvertisingDataBenchmark {
+    private static final UUID HEART_RATE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    private static final byte[] RECORD = {
+            0x02, 0x01, 0x06,
+            0x05, 0x03, 0x0F, 0x18, 0x0D, 0x18,
+            0x09, 0x09, 'H', 'R', '-', 'S', 'e', 'n', 's', 'r',
+            0x02, 0x0A, (byte) 0xF4,
+            0x07, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, 0x01, 0x02,
+            0x05, 0x16, 0x0F, 0x18, 0x64, 0x00
+    };
+
+    //按字段拷贝的解析结果
+    private static class CopiedRecord {
+        List<UUID> serviceUuids = new ArrayList<>();
+        Map<Integer, byte[]> manufacturerData = new HashMap<>();
+        Map<UUID, byte[]> serviceData = new HashMap<>();
+        String name;
+        int txPower = Integer.MIN_VALUE;
+    }
+
+    private static CopiedRecord parseCopied(byte[] record) {
+        CopiedRecord result = new CopiedRecord();
+        int pos = 0;
+        while (pos < record.length) {
+            int len = record[pos++] & 0xFF;
+            if (len == 0 || pos + len > record.length) {
+                break;
+            }
+            int type = record[pos] & 0xFF;
+            byte[] field = new byte[len - 1];
+            System.arraycopy(record, pos + 1, field, 0, field.length);
+            switch(type) {
+                case AdvertisingData.TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case AdvertisingData.TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    for (int i = 0; i + 2 <= field.length; i += 2) {
+                        result.serviceUuids.add(toUuid16(field, i));
+                    }
+                    break;
+                case AdvertisingData.TYPE_LOCAL_NAME_SHORT:
+                case AdvertisingData.TYPE_LOCAL_NAME_COMPLETE:
+                    result.name = new String(field, UTF_8);
+                    break;
+                case AdvertisingData.TYPE_TX_POWER_LEVEL:
+                    result.txPower = field[0];
+                    break;
+                case AdvertisingData.TYPE_SERVICE_DATA_16_BIT:
+                    byte[] serviceData = new byte[field.length - 2];
+                    System.arraycopy(field, 2, serviceData, 0, serviceData.length);
+                    result.serviceData.put(toUuid16(field, 0), serviceData);
+                    break;
+                case AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    byte[] manufacturerData = new byte[field.length - 2];
+                    System.arraycopy(field, 2, manufacturerData, 0, manufacturerData.length);
+                    result.manufacturerData.put((field[0] & 0xFF) | ((field[1] & 0xFF) << 8), manufacturerData);
+                    break;
+            }
+            pos += len;
+        }
+        return result;
+    }
+
+    private static UUID toUuid16(byte[] bs, int offset) {
+        long value = (bs[offset] & 0xFF) | ((bs[offset + 1] & 0xFF) << 8);
+        return new UUID((value << 32) | BASE_UUID_MSB, BASE_UUID_LSB);
+    }
+
+    //典型的过滤：服务UUID、厂商ID和名称长度
+    private static int filterCopied(byte[] record) {
+        CopiedRecord r = parseCopied(record);
+        int hit = r.serviceUuids.contains(HEART_RATE) ? 1 : 0;
+        hit += r.manufacturerData.get(0x004C) != null ? 1 : 0;
+        return hit + (r.name == null ? 0 : r.name.length());
+    }
+
+    private static int filterZeroCopy(AdvertisingData data, byte[] record) {
+        data.parse(record);
+        int hit = data.hasServiceUuid(HEART_RATE) ? 1 : 0;
+        hit += data.indexOfManufacturerData(0x004C) != -1 ? 1 : 0;
+        int index = data.indexOfName();
+        return hit + (index == -1 ? 0 : data.getLength(index));
+    }
+
+    @Test
+    public void compare() {
+        AdvertisingData data = new AdvertisingData();
+        assertEquals(filterCopied(RECORD), filterZeroCopy(data, RECORD));
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += filterCopied(RECORD);
+            sink += filterZeroCopy(data, RECORD);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += filterCopied(RECORD);
+        }
+        long copied = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += filterZeroCopy(data, RECORD);
+        }
+        long zeroCopy = System.nanoTime() - start;
+        assertTrue(String.format("AdvertisingData: copied %.1f ns/op, zero-copy %.1f ns/op (sink %d)",
+                copied / (double) ITERATIONS, zeroCopy / (double) ITERATIONS, sink), zeroCopy < copied);
+    }
+}
@@ -0,0 +1,163 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingDataTest {
+    private static final UUID HEART_RATE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CUSTOM = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private static byte[] bytes(int... values) {
+        byte[] bs = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bs[i] = (byte) values[i];
+        }
+        return bs;
+    }
+
+    @Test
+    public void parseNull() {
+        AdvertisingData data = new AdvertisingData().parse(null);
+        assertEquals(0, data.getFieldCount());
+        assertNull(data.getName());
+        assertEquals(-1, data.indexOfManufacturerData(0x004C));
+        assertEquals(Integer.MIN_VALUE, data.getTxPowerLevel());
+    }
+
+    @Test
+    public void parseFields() {
+        byte[] record = bytes(
+                0x02, 0x01, 0x06,
+                0x03, 0x03, 0x0D, 0x18,
+                0x04, 0x09, 'a', 'b', 'c',
+                0x02, 0x0A, 0xF4,
+                0x05, 0xFF, 0x4C, 0x00, 0x12, 0x34);
+        AdvertisingData data = new AdvertisingData().parse(record);
+        assertSame(record, data.getBytes());
+        assertEquals(5, data.getFieldCount());
+        assertEquals(AdvertisingData.TYPE_FLAGS, data.getType(0));
+        assertEquals(2, data.getOffset(0));
+        assertEquals(1, data.getLength(0));
+        assertEquals("abc", data.getName());
+        assertEquals(-12, data.getTxPowerLevel());
+        assertTrue(data.hasServiceUuid(HEART_RATE));
+        assertFalse(data.hasServiceUuid(CUSTOM));
+        assertEquals(1, data.getServiceUuidCount());
+        assertEquals(HEART_RATE, data.getServiceUuid(0));
+        int index = data.indexOfManufacturerData(0x004C);
+        assertEquals(4, index);
+        assertEquals(0x004C, data.getManufacturerId(index));
+        assertEquals(2, data.getManufacturerDataLength(index));
+        assertEquals(0x12, record[data.getManufacturerDataOffset(index)]);
+    }
+
+    @Test
+    public void parse128BitUuidAndServiceData() {
+        byte[] record = new byte[2 + 16 + 2 + 16 + 1];
+        record[0] = 17;
+        record[1] = AdvertisingData.TYPE_SERVICE_UUIDS_128_BIT_COMPLETE;
+        writeUuid(record, 2, CUSTOM);
+        record[18] = 18;
+        record[19] = AdvertisingData.TYPE_SERVICE_DATA_128_BIT;
+        writeUuid(record, 20, CUSTOM);
+        record[36] = 0x55;
+        AdvertisingData data = new AdvertisingData().parse(record);
+        assertTrue(data.hasServiceUuid(CUSTOM));
+        assertEquals(CUSTOM, data.getServiceUuid(0));
+        int index = data.indexOfServiceData(CUSTOM);
+        assertEquals(1, index);
+        assertEquals(CUSTOM, data.getServiceDataUuid(index));
+        assertEquals(1, data.getServiceDataLength(index));
+        assertEquals(0x55, record[data.getServiceDataOffset(index)]);
+    }
+
+    private static void writeUuid(byte[] dst, int offset, UUID uuid) {
+        long lsb = uuid.getLeastSignificantBits();
+        long msb = uuid.getMostSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            dst[offset + i] = (byte) (lsb >>> (i * 8));
+            dst[offset + 8 + i] = (byte) (msb >>> (i * 8));
+        }
+    }
+
+    @Test
+    public void stopAtZeroLength() {
+        //长度为0之后是补齐的0，不再解析
+        AdvertisingData data = new AdvertisingData().parse(bytes(0x02, 0x01, 0x06, 0x00, 0x03, 0x09, 'a', 'b'));
+        assertEquals(1, data.getFieldCount());
+        assertNull(data.getName());
+    }
+
+    @Test
+    public void dropTruncatedField() {
+        //名称字段声明5字节，实际只有2字节
+        AdvertisingData data = new AdvertisingData().parse(bytes(0x02, 0x01, 0x06, 0x05, 0x09, 'a', 'b'));
+        assertEquals(1, data.getFieldCount());
+        assertNull(data.getName());
+        //只有长度字节
+        data.parse(bytes(0x02, 0x01, 0x06, 0x01));
+        assertEquals(1, data.getFieldCount());
+    }
+
+    @Test
+    public void shortManufacturerData() {
+        //厂商数据字段只有1字节，不足厂商ID
+        byte[] record = bytes(0x02, 0xFF, 0x4C);
+        AdvertisingData data = new AdvertisingData().parse(record);
+        assertEquals(1, data.getFieldCount());
+        assertEquals(-1, data.indexOfManufacturerData(0x4C));
+        assertEquals(-1, data.getManufacturerId(0));
+        assertEquals(0, data.getManufacturerDataLength(0));
+        //只有类型字节
+        data.parse(bytes(0x01, 0xFF));
+        assertEquals(0, data.getLength(0));
+        assertEquals(0, data.getManufacturerDataLength(0));
+    }
+
+    @Test
+    public void shortServiceData() {
+        AdvertisingData data = new AdvertisingData().parse(bytes(0x02, 0x16, 0x0D));
+        assertEquals(-1, data.indexOfServiceData(HEART_RATE));
+        assertEquals(0, data.getServiceDataLength(0));
+    }
+
+    @Test
+    public void partialUuidList() {
+        //16位UUID列表多出1字节，多出的部分忽略
+        AdvertisingData data = new AdvertisingData().parse(bytes(0x04, 0x02, 0x0D, 0x18, 0x0F));
+        assertEquals(1, data.getServiceUuidCount());
+        assertEquals(HEART_RATE, data.getServiceUuid(0));
+        assertNull(data.getServiceUuid(1));
+    }
+
+    @Test
+    public void emptyTxPower() {
+        AdvertisingData data = new AdvertisingData().parse(bytes(0x01, 0x0A));
+        assertEquals(Integer.MIN_VALUE, data.getTxPowerLevel());
+    }
+
+    @Test
+    public void growAndReuse() {
+        byte[] record = new byte[40 * 3];
+        for (int i = 0; i < 40; i++) {
+            record[i * 3] = 2;
+            record[i * 3 + 1] = (byte) 0xFF;
+            record[i * 3 + 2] = (byte) i;
+        }
+        AdvertisingData data = new AdvertisingData().parse(record);
+        assertEquals(40, data.getFieldCount());
+        assertEquals(39 * 3 + 2, data.getOffset(39));
+        //复用时覆盖上一次的索引
+        data.parse(bytes(0x02, 0x01, 0x06));
+        assertEquals(1, data.getFieldCount());
+        assertArrayEquals(bytes(0x02, 0x01, 0x06), data.getBytes());
+    }
+}
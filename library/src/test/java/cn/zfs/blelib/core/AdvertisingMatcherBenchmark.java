@@ -0,0 +1,126 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比{@link AdvertisingMatcher}的前缀树与逐个模式比较字节数组。300个模式，一半广播能匹配。
+ * 默认不随test运行，执行gradlew test -Pbenchmark时运行，前缀树更慢时失败并给出两者每秒分类的广播数
+ */
+public class AdvertisingMatcherBenchmark {
+    private static final int PATTERN_COUNT = 300;
+    private static final int RECORD_COUNT = 256;
+    private static final int WARMUP = 50000;
+    private static final int ITERATIONS = 200000;
+
+    private static class LinearPattern {
+        final int type;
+        final byte[] prefix;
+        final byte[] mask;
+        final AdvertisingMatcher.Decoder<Integer> decoder;
+
+        LinearPattern(int type, byte[] prefix, byte[] mask, AdvertisingMatcher.Decoder<Integer> decoder) {
+            this.type = type;
+            this.prefix = prefix;
+            this.mask = mask;
+            this.decoder = decoder;
+        }
+    }
+
+    private static AdvertisingMatcher.Decoder<Integer> result(final int value) {
+        return new AdvertisingMatcher.Decoder<Integer>() {
+            @Override
+            public Integer decode(byte[] data, int offset, int length) {
+                return value;
+            }
+        };
+    }
+
+    //逐个模式比较，与前缀树的匹配结果相同(模式之间没有重叠)
+    private static Integer matchLinear(List<LinearPattern> patterns, AdvertisingData advData) {
+        byte[] data = advData.getBytes();
+        for (int i = 0; i < advData.getFieldCount(); i++) {
+            int type = advData.getType(i);
+            int offset = advData.getOffset(i);
+            int length = advData.getLength(i);
+            for (LinearPattern p : patterns) {
+                if (p.type != type || p.prefix.length > length) {
+                    continue;
+                }
+                boolean matched = true;
+                for (int j = 0; j < p.prefix.length; j++) {
+                    int m = p.mask == null ? 0xFF : p.mask[j] & 0xFF;
+                    if ((data[offset + j] & m) != (p.prefix[j] & m)) {
+                        matched = false;
+                        break;
+                    }
+                }
+                if (matched) {
+                    Integer result = p.decoder.decode(data, offset, length);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void compare() {
+        Random random = new Random(1);
+        AdvertisingMatcher<Integer> matcher = AdvertisingMatcher.newInstance();
+        List<LinearPattern> patterns = new ArrayList<>();
+        for (int i = 0; i < PATTERN_COUNT; i++) {
+            //厂商ID + 2字节前缀，每4个模式有1个对第2个字节带掩码
+            byte[] prefix = {(byte) i, (byte) (i >> 8), (byte) 0x02, (byte) (i * 7)};
+            byte[] mask = i % 4 == 0 ? new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0} : null;
+            matcher.addPattern(AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA, prefix, mask, result(i));
+            patterns.add(new LinearPattern(AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA, prefix, mask, result(i)));
+        }
+        byte[][] records = new byte[RECORD_COUNT][];
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            //一半是已注册的厂商，另一半是未注册的厂商ID
+            int id = i % 2 == 0 ? random.nextInt(PATTERN_COUNT) : PATTERN_COUNT + random.nextInt(1000);
+            records[i] = new byte[]{
+                    0x02, 0x01, 0x06,
+                    0x03, 0x03, 0x0D, 0x18,
+                    0x07, (byte) 0xFF, (byte) id, (byte) (id >> 8), 0x02, (byte) (id * 7), 0x11, 0x22
+            };
+        }
+        AdvertisingData advData = new AdvertisingData();
+        int matched = 0;
+        for (byte[] record : records) {
+            Integer expected = matchLinear(patterns, advData.parse(record));
+            assertEquals(expected, matcher.match(advData));
+            if (expected != null) {
+                matched++;
+            }
+        }
+        assertEquals(RECORD_COUNT / 2, matched);
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            byte[] record = records[i & (RECORD_COUNT - 1)];
+            sink += matcher.match(advData.parse(record)) == null ? 0 : 1;
+            sink += matchLinear(patterns, advData.parse(record)) == null ? 0 : 1;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += matchLinear(patterns, advData.parse(records[i & (RECORD_COUNT - 1)])) == null ? 0 : 1;
+        }
+        long linear = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += matcher.match(advData.parse(records[i & (RECORD_COUNT - 1)])) == null ? 0 : 1;
+        }
+        long trie = System.nanoTime() - start;
+        assertTrue(String.format("AdvertisingMatcher(%d patterns): linear %.2fM adverts/s, trie %.2fM adverts/s (sink %d)",
+                PATTERN_COUNT, ITERATIONS * 1e3 / linear, ITERATIONS * 1e3 / trie, sink), trie < linear);
+    }
+}
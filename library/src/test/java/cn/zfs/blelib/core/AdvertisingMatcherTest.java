@@ -0,0 +1,170 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AdvertisingMatcherTest {
+    //返回固定结果的解码器
+    private static AdvertisingMatcher.Decoder<String> result(final String value) {
+        return new AdvertisingMatcher.Decoder<String>() {
+            @Override
+            public String decode(byte[] data, int offset, int length) {
+                return value;
+            }
+        };
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bs = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bs[i] = (byte) values[i];
+        }
+        return bs;
+    }
+
+    //厂商数据字段
+    private static byte[] manufacturer(int id, int... data) {
+        byte[] record = new byte[4 + data.length];
+        record[0] = (byte) (3 + data.length);
+        record[1] = (byte) AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA;
+        record[2] = (byte) id;
+        record[3] = (byte) (id >> 8);
+        for (int i = 0; i < data.length; i++) {
+            record[4 + i] = (byte) data[i];
+        }
+        return record;
+    }
+
+    @Test
+    public void matchExactPrefix() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x004C, bytes(0x02, 0x15), null, result("iBeacon"))
+                .addServiceDataPattern(0xFEAA, bytes(0x00), null, result("Eddystone-UID"));
+        assertEquals("iBeacon", matcher.match(manufacturer(0x004C, 0x02, 0x15, 0x01)));
+        assertNull(matcher.match(manufacturer(0x004C, 0x02, 0x16, 0x01)));
+        assertNull(matcher.match(manufacturer(0x004D, 0x02, 0x15, 0x01)));
+        assertEquals("Eddystone-UID", matcher.match(bytes(0x04, 0x16, 0xAA, 0xFE, 0x00)));
+        assertNull(matcher.match(bytes(0x04, 0x16, 0xAA, 0xFE, 0x10)));
+        assertNull(matcher.match((byte[]) null));
+    }
+
+    @Test
+    public void fieldShorterThanPrefix() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x004C, bytes(0x02, 0x15), null, result("iBeacon"));
+        assertNull(matcher.match(manufacturer(0x004C, 0x02)));
+    }
+
+    @Test
+    public void matchMask() {
+        //只比较高4位
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x0059, bytes(0x10), bytes(0xF0), result("family1"));
+        assertEquals("family1", matcher.match(manufacturer(0x0059, 0x10)));
+        assertEquals("family1", matcher.match(manufacturer(0x0059, 0x1F)));
+        assertNull(matcher.match(manufacturer(0x0059, 0x20)));
+        //掩码为0的字节匹配任意值
+        matcher.addPattern(AdvertisingData.TYPE_SERVICE_DATA_16_BIT, bytes(0xAA, 0x00, 0x07), bytes(0xFF, 0x00, 0xFF), result("any"));
+        assertEquals("any", matcher.match(bytes(0x04, 0x16, 0xAA, 0x55, 0x07)));
+        assertNull(matcher.match(bytes(0x04, 0x16, 0xAB, 0x55, 0x07)));
+    }
+
+    @Test
+    public void longerPrefixFirst() {
+        //先注册短前缀，长前缀仍优先
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x004C, bytes(), null, result("apple"))
+                .addManufacturerPattern(0x004C, bytes(0x02, 0x15), null, result("iBeacon"));
+        assertEquals("iBeacon", matcher.match(manufacturer(0x004C, 0x02, 0x15)));
+        assertEquals("apple", matcher.match(manufacturer(0x004C, 0x10, 0x05)));
+    }
+
+    @Test
+    public void longerMaskedPrefixBeforeShorterExact() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x0001, bytes(0x01), null, result("short"))
+                .addManufacturerPattern(0x0001, bytes(0x01, 0x20), bytes(0xFF, 0xF0), result("long"));
+        assertEquals("long", matcher.match(manufacturer(0x0001, 0x01, 0x2A)));
+        assertEquals("short", matcher.match(manufacturer(0x0001, 0x01, 0x3A)));
+    }
+
+    @Test
+    public void exactBeforeMaskedAtSameLength() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x0001, bytes(0x20), bytes(0xF0), result("masked"))
+                .addManufacturerPattern(0x0001, bytes(0x2A), null, result("exact"));
+        assertEquals("exact", matcher.match(manufacturer(0x0001, 0x2A)));
+        assertEquals("masked", matcher.match(manufacturer(0x0001, 0x2B)));
+    }
+
+    @Test
+    public void samePrefixInRegistrationOrder() {
+        AdvertisingMatcher.Decoder<String> rejectShort = new AdvertisingMatcher.Decoder<String>() {
+            @Override
+            public String decode(byte[] data, int offset, int length) {
+                //字段不足5字节时不匹配，交给下一个模式
+                return length >= 5 ? "first" : null;
+            }
+        };
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x0001, bytes(0x01), null, rejectShort)
+                .addManufacturerPattern(0x0001, bytes(0x01), null, result("second"));
+        assertEquals("first", matcher.match(manufacturer(0x0001, 0x01, 0x00, 0x00)));
+        assertEquals("second", matcher.match(manufacturer(0x0001, 0x01)));
+    }
+
+    @Test
+    public void firstMatchingField() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addServiceDataPattern(0xFEAA, bytes(), null, result("eddystone"))
+                .addManufacturerPattern(0x004C, bytes(), null, result("apple"));
+        byte[] m = manufacturer(0x004C, 0x01);
+        byte[] s = bytes(0x03, 0x16, 0xAA, 0xFE);
+        byte[] record = new byte[m.length + s.length];
+        System.arraycopy(m, 0, record, 0, m.length);
+        System.arraycopy(s, 0, record, m.length, s.length);
+        assertEquals("apple", matcher.match(record));
+    }
+
+    @Test
+    public void decoderGetsFieldBounds() {
+        final int[] bounds = new int[2];
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x004C, bytes(0x02), null, new AdvertisingMatcher.Decoder<String>() {
+                    @Override
+                    public String decode(byte[] data, int offset, int length) {
+                        bounds[0] = offset;
+                        bounds[1] = length;
+                        return "ok";
+                    }
+                });
+        byte[] record = new byte[3 + 4 + 5];
+        System.arraycopy(bytes(0x02, 0x01, 0x06), 0, record, 0, 3);
+        System.arraycopy(manufacturer(0x004C, 0x02, 0x15, 0x00, 0x00), 0, record, 3, 8);
+        assertEquals("ok", matcher.match(record));
+        assertEquals(5, bounds[0]);
+        assertEquals(6, bounds[1]);
+    }
+
+    @Test
+    public void addAfterMatch() {
+        AdvertisingMatcher<String> matcher = AdvertisingMatcher.<String>newInstance()
+                .addManufacturerPattern(0x004C, bytes(0x02), null, result("a"));
+        assertNull(matcher.match(manufacturer(0x004C, 0x03)));
+        matcher.addManufacturerPattern(0x004C, bytes(0x03), null, result("b"));
+        assertEquals("a", matcher.match(manufacturer(0x004C, 0x02)));
+        assertEquals("b", matcher.match(manufacturer(0x004C, 0x03)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidType() {
+        AdvertisingMatcher.<String>newInstance().addPattern(0x100, bytes(0x01), null, result("x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectMaskLength() {
+        AdvertisingMatcher.<String>newInstance().addPattern(0xFF, bytes(0x01, 0x02), bytes(0xFF), result("x"));
+    }
+}
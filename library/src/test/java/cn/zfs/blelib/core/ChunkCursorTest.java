@@ -0,0 +1,173 @@
+package cn.zfs.blelib.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChunkCursorTest {
+    //常见MTU对应的包大小：默认23、185、247、517
+    private static final int[] CHUNK_SIZES = {1, 20, 182, 244, 514};
+    private static final byte[] DATA = new byte[1000];
+    private File file;
+    private RandomAccessFile raf;
+
+    static {
+        for (int i = 0; i < DATA.length; i++) {
+            DATA[i] = (byte) (i * 31 + 7);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("chunk", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(DATA);
+        out.close();
+        raf = new RandomAccessFile(file, "r");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        raf.close();
+        file.delete();
+    }
+
+    //取出所有包并拼接，同时检查每包长度
+    private static byte[] drain(ChunkCursor cursor, int chunkSize, int total) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (cursor.hasNext()) {
+            byte[] chunk = cursor.next();
+            int expected = Math.min(chunkSize, total - out.size());
+            assertEquals(expected, chunk.length);
+            out.write(chunk);
+            assertEquals(out.size(), cursor.getOffset());
+            assertEquals(total - out.size(), cursor.remaining());
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void arraySource() throws IOException {
+        for (int size : CHUNK_SIZES) {
+            assertArrayEquals("chunk " + size, DATA, drain(new ChunkCursor(DATA, size), size, DATA.length));
+        }
+    }
+
+    @Test
+    public void byteBufferSource() throws IOException {
+        ByteBuffer source = ByteBuffer.wrap(DATA);
+        source.position(100).limit(900);
+        byte[] expected = Arrays.copyOfRange(DATA, 100, 900);
+        for (int size : CHUNK_SIZES) {
+            assertArrayEquals("chunk " + size, expected, drain(new ChunkCursor(source, size), size, 800));
+        }
+        //不改变原ByteBuffer的位置
+        assertEquals(100, source.position());
+        assertEquals(900, source.limit());
+    }
+
+    @Test
+    public void fileSource() throws IOException {
+        FileChannel channel = raf.getChannel();
+        for (int size : CHUNK_SIZES) {
+            assertArrayEquals("chunk " + size, DATA, drain(new ChunkCursor(channel, 0, DATA.length, size), size, DATA.length));
+        }
+        assertEquals(0, channel.position());
+    }
+
+    @Test
+    public void tailChunk() throws IOException {
+        //1000 = 4 * 244 + 24
+        ChunkCursor cursor = new ChunkCursor(DATA, 244);
+        byte[] first = cursor.next();
+        for (int i = 0; i < 3; i++) {
+            assertSame(first, cursor.next());//整包复用同一个缓冲区
+        }
+        byte[] tail = cursor.next();
+        assertNotSame(first, tail);
+        assertEquals(24, tail.length);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 976, 1000), tail);
+        assertFalse(cursor.hasNext());
+        assertEquals(0, cursor.remaining());
+    }
+
+    @Test
+    public void exactMultipleHasNoTail() throws IOException {
+        ChunkCursor cursor = new ChunkCursor(DATA, 200);
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(200, cursor.next().length);
+            count++;
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void singleChunkUsesSourceArray() throws IOException {
+        ChunkCursor cursor = new ChunkCursor(DATA, 1000);
+        assertSame(DATA, cursor.next());
+        assertFalse(cursor.hasNext());
+        //包大小大于数据时同样不复制
+        assertSame(DATA, new ChunkCursor(DATA, 4096).next());
+    }
+
+    @Test
+    public void invalidChunkSizeFallsBackToOne() throws IOException {
+        assertArrayEquals(DATA, drain(new ChunkCursor(DATA, 0), 1, DATA.length));
+    }
+
+    @Test
+    public void resumeWithDifferentChunkSize() throws IOException {
+        //按默认MTU写出一部分后断开，MTU变大后从已写位置续传
+        FileChannel channel = raf.getChannel();
+        ChunkCursor before = new ChunkCursor(channel, 0, DATA.length, 20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 7; i++) {
+            out.write(before.next());
+        }
+        long offset = before.getOffset();
+        assertEquals(140, offset);
+        ChunkCursor after = new ChunkCursor(channel, offset, DATA.length, 244);
+        out.write(drain(after, 244, (int) (DATA.length - offset)));
+        assertArrayEquals(DATA, out.toByteArray());
+        assertEquals(DATA.length - offset, after.getOffset());
+    }
+
+    @Test
+    public void fileRange() throws IOException {
+        ChunkCursor cursor = new ChunkCursor(raf.getChannel(), 10, 60, 20);
+        assertArrayEquals(Arrays.copyOfRange(DATA, 10, 60), drain(cursor, 20, 50));
+    }
+
+    @Test
+    public void truncatedFile() throws IOException {
+        //文件比预期短时抛出EOFException，不会无限等待
+        ChunkCursor cursor = new ChunkCursor(raf.getChannel(), 0, DATA.length + 10, 244);
+        try {
+            while (cursor.hasNext()) {
+                cursor.next();
+            }
+            fail();
+        } catch (EOFException e) {
+            assertTrue(cursor.hasNext());
+        }
+    }
+}
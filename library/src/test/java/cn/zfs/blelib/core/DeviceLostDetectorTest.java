@@ -0,0 +1,149 @@
+package cn.zfs.blelib.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceLostDetectorTest {
+    private final List<String> lost = new ArrayList<>();
+    private final List<Long> lostTimes = new ArrayList<>();
+    private final List<Long> lastSeens = new ArrayList<>();
+    private final DeviceLostDetector detector = new DeviceLostDetector(new DeviceLostDetector.Callback() {
+        @Override
+        public void onDeviceLost(String addr, long lastSeen) {
+            synchronized (lost) {
+                lost.add(addr);
+                lostTimes.add(System.nanoTime() / 1000000L);
+                lastSeens.add(lastSeen);
+                lost.notifyAll();
+            }
+        }
+    });
+
+    @After
+    public void tearDown() {
+        detector.clear();
+    }
+
+    private void awaitLost(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lost) {
+            while (lost.size() < count) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                lost.wait(wait);
+            }
+        }
+    }
+
+    @Test
+    public void lostAfterTimeout() throws InterruptedException {
+        long seen = detector.touch("A", 200);
+        detector.touch("B", 200);
+        awaitLost(2, 2000);
+        synchronized (lost) {
+            assertEquals(2, lost.size());
+            assertTrue(lost.contains("A") && lost.contains("B"));
+            //不会提前判定，误差不超过一个刻度加线程调度
+            long elapsed = lostTimes.get(0) - seen;
+            assertTrue("elapsed " + elapsed, elapsed >= 200 && elapsed < 600);
+            assertEquals(seen, (long) lastSeens.get(lost.indexOf("A")));
+        }
+    }
+
+    @Test
+    public void touchPostponesLost() throws InterruptedException {
+        detector.touch("A", 300);
+        detector.touch("B", 300);
+        long last = 0;
+        //A持续被扫描到，B不再被扫描到
+        for (int i = 0; i < 8; i++) {
+            Thread.sleep(100);
+            last = detector.touch("A", 300);
+        }
+        synchronized (lost) {
+            assertEquals(1, lost.size());
+            assertEquals("B", lost.get(0));
+        }
+        awaitLost(2, 2000);
+        synchronized (lost) {
+            assertEquals("A", lost.get(1));
+            assertEquals(last, (long) lastSeens.get(1));
+            assertTrue(lostTimes.get(1) - last >= 300);
+        }
+    }
+
+    @Test
+    public void removeStopsDetection() throws InterruptedException {
+        detector.touch("A", 100);
+        detector.touch("B", 100);
+        detector.remove("A");
+        awaitLost(1, 1000);
+        Thread.sleep(300);
+        synchronized (lost) {
+            assertEquals(1, lost.size());
+            assertEquals("B", lost.get(0));
+        }
+    }
+
+    @Test
+    public void clearStopsDetection() throws InterruptedException {
+        detector.touch("A", 100);
+        detector.clear();
+        Thread.sleep(400);
+        synchronized (lost) {
+            assertTrue(lost.isEmpty());
+        }
+        //清空后检测线程已退出，再次扫描到时重新开始
+        detector.touch("A", 100);
+        awaitLost(1, 1000);
+        synchronized (lost) {
+            assertEquals(1, lost.size());
+        }
+    }
+
+    @Test
+    public void shorterTimeoutRetunesWheel() throws InterruptedException {
+        //刻度按10秒超时计算为625毫秒，缩短超时后按新的刻度检测
+        long seen = detector.touch("A", 10000);
+        detector.touch("B", 200);
+        awaitLost(2, 2000);
+        synchronized (lost) {
+            assertEquals(2, lost.size());
+            assertTrue(lostTimes.get(1) - seen < 1000);
+        }
+    }
+
+    @Test
+    public void longerTimeoutDelaysLost() throws InterruptedException {
+        detector.touch("A", 100);
+        detector.touch("A", 600);
+        Thread.sleep(400);
+        synchronized (lost) {
+            assertTrue(lost.isEmpty());
+        }
+        awaitLost(1, 2000);
+        synchronized (lost) {
+            assertEquals(1, lost.size());
+        }
+    }
+
+    @Test
+    public void manyDevicesInSameSlot() throws InterruptedException {
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            detector.touch("D" + i, 100);
+        }
+        awaitLost(count, 3000);
+        synchronized (lost) {
+            assertEquals(count, lost.size());
+        }
+    }
+}
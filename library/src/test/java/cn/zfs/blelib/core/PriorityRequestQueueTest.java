@@ -0,0 +1,208 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityRequestQueueTest {
+    private final PriorityRequestQueue queue = new PriorityRequestQueue();
+    private final ConnectionConfig config = ConnectionConfig.newInstance();
+
+    private static Request request(String id, Request.Priority priority) {
+        Request request = Request.newReadRssiRequest(id);
+        request.priority = priority;
+        return request;
+    }
+
+    private void fill(Request.Priority priority, int count) {
+        for (int i = 0; i < count; i++) {
+            queue.add(request(priority.name().substring(0, 1) + i, priority));
+        }
+    }
+
+    //按出队顺序取每个请求优先级的首字母
+    private String pollLanes(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(queue.poll(config).priority.name().charAt(0));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void smoothWeightedRoundRobin() {
+        fill(Request.Priority.CONTROL, 20);
+        fill(Request.Priority.INTERACTIVE, 20);
+        fill(Request.Priority.BULK, 20);
+        //默认8:4:1，一轮13个，同一队列不连续占满
+        assertEquals("CICCICBCICCIC", pollLanes(13));
+        assertEquals("CICCICBCICCIC", pollLanes(13));
+    }
+
+    @Test
+    public void customWeights() {
+        config.setPriorityWeights(1, 1, 1);
+        fill(Request.Priority.CONTROL, 3);
+        fill(Request.Priority.INTERACTIVE, 3);
+        fill(Request.Priority.BULK, 3);
+        assertEquals("CIBCIBCIB", pollLanes(9));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll(config));
+    }
+
+    @Test
+    public void emptyLaneIsSkipped() {
+        fill(Request.Priority.INTERACTIVE, 10);
+        fill(Request.Priority.BULK, 10);
+        //只有4:1两个队列参与轮询
+        assertEquals("IIBII", pollLanes(5));
+        //空队列的累计权重清零，加入后不会连续出队补偿
+        fill(Request.Priority.CONTROL, 10);
+        String lanes = pollLanes(13);
+        assertTrue(lanes, lanes.startsWith("CI"));
+    }
+
+    @Test
+    public void strictPriority() {
+        config.setStrictPriority(true);
+        fill(Request.Priority.BULK, 2);
+        fill(Request.Priority.INTERACTIVE, 2);
+        fill(Request.Priority.CONTROL, 2);
+        assertEquals("CCIIBB", pollLanes(6));
+    }
+
+    @Test
+    public void fifoWithinLane() {
+        fill(Request.Priority.BULK, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("B" + i, queue.poll(config).requestId);
+        }
+    }
+
+    @Test
+    public void starvedRequestJumpsAhead() {
+        config.setStrictPriority(true);
+        fill(Request.Priority.CONTROL, 4);
+        fill(Request.Priority.BULK, 2);
+        //BULK的请求已排队超过3秒
+        long old = System.currentTimeMillis() - 5000;
+        for (Request request : queue.findAll(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.priority == Request.Priority.BULK;
+            }
+        })) {
+            request.enqueueTime = old;
+        }
+        //提前出队与正常调度交替
+        assertEquals("BCBCCC", pollLanes(6));
+        RequestLaneMetrics bulk = queue.getMetrics(Request.Priority.BULK);
+        assertEquals(2, bulk.getStarvedCount());
+        assertTrue(bulk.getMaxWaitMillis() >= 5000);
+        assertEquals(0, queue.getMetrics(Request.Priority.CONTROL).getStarvedCount());
+    }
+
+    @Test
+    public void starvedHeadOfFirstLaneIsNotAJump() {
+        fill(Request.Priority.CONTROL, 2);
+        queue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return true;
+            }
+        }).enqueueTime = System.currentTimeMillis() - 5000;
+        pollLanes(2);
+        assertEquals(0, queue.getMetrics(Request.Priority.CONTROL).getStarvedCount());
+    }
+
+    @Test
+    public void starvationDisabled() {
+        config.setStrictPriority(true).setStarvationMillis(0);
+        fill(Request.Priority.CONTROL, 2);
+        queue.add(request("B0", Request.Priority.BULK));
+        queue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.priority == Request.Priority.BULK;
+            }
+        }).enqueueTime = System.currentTimeMillis() - 60000;
+        assertEquals("CCB", pollLanes(3));
+        assertEquals(0, queue.getMetrics(Request.Priority.BULK).getStarvedCount());
+    }
+
+    @Test
+    public void metrics() {
+        fill(Request.Priority.INTERACTIVE, 3);
+        fill(Request.Priority.BULK, 1);
+        assertEquals(4, queue.getMaxSize());
+        queue.poll(config);
+        RequestLaneMetrics interactive = queue.getMetrics(Request.Priority.INTERACTIVE);
+        assertEquals(2, interactive.getDepth());
+        assertEquals(3, interactive.getMaxDepth());
+        assertEquals(3, interactive.getEnqueuedCount());
+        assertEquals(1, interactive.getDequeuedCount());
+        queue.resetMetrics();
+        interactive = queue.getMetrics(Request.Priority.INTERACTIVE);
+        assertEquals(2, interactive.getMaxDepth());
+        assertEquals(0, interactive.getEnqueuedCount());
+        assertEquals(0, interactive.getDequeuedCount());
+        queue.resetMaxSize();
+        assertEquals(3, queue.getMaxSize());
+    }
+
+    @Test
+    public void dropOldestCountsAsDrop() {
+        fill(Request.Priority.INTERACTIVE, 2);
+        fill(Request.Priority.BULK, 2);
+        //从最低优先级开始丢弃，不超过新请求的优先级
+        assertEquals("B0", queue.dropOldest(Request.Priority.CONTROL).requestId);
+        assertEquals("B1", queue.dropOldest(Request.Priority.BULK).requestId);
+        assertNull(queue.dropOldest(Request.Priority.BULK));
+        assertEquals(2, queue.size());
+        RequestLaneMetrics bulk = queue.getMetrics(Request.Priority.BULK);
+        assertEquals(2, bulk.getDroppedCount());
+        assertEquals(0, bulk.getDequeuedCount());
+        assertEquals(0, bulk.getDepth());
+        assertEquals(0, queue.getMetrics(Request.Priority.INTERACTIVE).getDroppedCount());
+        queue.resetMetrics();
+        assertEquals(0, queue.getMetrics(Request.Priority.BULK).getDroppedCount());
+    }
+
+    @Test
+    public void removeReplaceAndDrain() {
+        fill(Request.Priority.BULK, 2);
+        fill(Request.Priority.CONTROL, 2);
+        List<Request> removed = queue.removeAll(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.requestId.endsWith("0");
+            }
+        });
+        assertEquals(2, removed.size());
+        assertEquals(2, queue.size());
+        Request old = queue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.requestId.equals("B1");
+            }
+        });
+        Request replacement = Request.newReadRssiRequest("X");
+        assertTrue(queue.replace(old, replacement));
+        //沿用被替换请求的优先级和入队时间
+        assertSame(Request.Priority.BULK, replacement.priority);
+        assertEquals(old.enqueueTime, replacement.enqueueTime);
+        List<String> ids = new ArrayList<>();
+        for (Request request : queue.drain()) {
+            ids.add(request.requestId);
+        }
+        assertEquals(Arrays.asList("C1", "X"), ids);
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,66 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比{@link RequestQueue}与ArrayList.remove(0)在队列积压时的入队出队耗时。
+ * 默认不随test运行，执行gradlew test -Pbenchmark时运行，环形缓冲区更慢时失败并给出两者的平均耗时
+ */
+public class RequestQueueBenchmark {
+    private static final int BACKLOG = 1024;
+    private static final int WARMUP = 50000;
+    private static final int ITERATIONS = 100000;
+
+    private static long runRing(Request[] requests, int iterations) {
+        RequestQueue queue = new RequestQueue();
+        for (int i = 0; i < BACKLOG; i++) {
+            queue.add(requests[i]);
+        }
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            queue.add(requests[i & (requests.length - 1)]);
+            sink += queue.poll().requestId.length();
+        }
+        assertEquals(BACKLOG, queue.size());
+        return sink;
+    }
+
+    private static long runList(Request[] requests, int iterations) {
+        List<Request> queue = new ArrayList<>();
+        for (int i = 0; i < BACKLOG; i++) {
+            queue.add(requests[i]);
+        }
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            queue.add(requests[i & (requests.length - 1)]);
+            sink += queue.remove(0).requestId.length();
+        }
+        assertEquals(BACKLOG, queue.size());
+        return sink;
+    }
+
+    @Test
+    public void compare() {
+        Request[] requests = new Request[2048];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = Request.newReadRssiRequest(String.valueOf(i));
+        }
+        //两种队列出队顺序相同
+        assertEquals(runList(requests, 5000), runRing(requests, 5000));
+        long sink = runRing(requests, WARMUP) + runList(requests, WARMUP);
+        long start = System.nanoTime();
+        sink += runList(requests, ITERATIONS);
+        long list = System.nanoTime() - start;
+        start = System.nanoTime();
+        sink += runRing(requests, ITERATIONS);
+        long ring = System.nanoTime() - start;
+        assertTrue(String.format("RequestQueue(backlog %d): ArrayList.remove(0) %.1f ns/op, ring buffer %.1f ns/op (sink %d)",
+                BACKLOG, list / (double) ITERATIONS, ring / (double) ITERATIONS, sink), ring < list);
+    }
+}
@@ -0,0 +1,169 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestQueueTest {
+    private final RequestQueue queue = new RequestQueue();
+
+    private static Request request(int id) {
+        return Request.newReadRssiRequest(String.valueOf(id));
+    }
+
+    private static List<String> ids(Iterable<Request> requests) {
+        List<String> list = new ArrayList<>();
+        for (Request request : requests) {
+            list.add(request.requestId);
+        }
+        return list;
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> list = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            list.add(String.valueOf(i));
+        }
+        return list;
+    }
+
+    //队首移到下标12，再加入10个，环绕到数组开头
+    private void fillWrapped() {
+        for (int i = 0; i < 12; i++) {
+            queue.add(request(-1));
+            queue.poll();
+        }
+        for (int i = 0; i < 10; i++) {
+            queue.add(request(i));
+        }
+    }
+
+    @Test
+    public void fifo() {
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+        for (int i = 0; i < 5; i++) {
+            queue.add(request(i));
+        }
+        assertEquals(5, queue.size());
+        assertEquals("0", queue.peek().requestId);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(String.valueOf(i), queue.poll().requestId);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void wraparound() {
+        fillWrapped();
+        assertEquals(10, queue.size());
+        assertEquals(range(0, 10), ids(queue));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i), queue.poll().requestId);
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void growWhileWrapped() {
+        fillWrapped();
+        //容量16已满后再加入，扩容时按队列顺序复制
+        for (int i = 10; i < 40; i++) {
+            queue.add(request(i));
+        }
+        assertEquals(40, queue.size());
+        assertEquals(range(0, 40), ids(queue));
+        for (int i = 0; i < 40; i++) {
+            assertEquals(String.valueOf(i), queue.poll().requestId);
+        }
+    }
+
+    @Test
+    public void removeAllWhileWrapped() {
+        fillWrapped();
+        List<Request> removed = queue.removeAll(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return Integer.parseInt(request.requestId) % 3 == 0;
+            }
+        });
+        assertEquals(Arrays.asList("0", "3", "6", "9"), ids(removed));
+        assertEquals(Arrays.asList("1", "2", "4", "5", "7", "8"), ids(queue));
+        //压缩后继续入队出队
+        queue.add(request(10));
+        assertEquals(7, queue.size());
+        assertEquals("1", queue.poll().requestId);
+        assertEquals(Arrays.asList("2", "4", "5", "7", "8", "10"), ids(queue));
+    }
+
+    @Test
+    public void removeByType() {
+        queue.add(request(0));
+        queue.add(Request.newReadCharacteristicRequest("1", null, null));
+        queue.add(request(2));
+        List<Request> removed = queue.removeByType(Request.RequestType.READ_CHARACTERISTIC);
+        assertEquals(1, removed.size());
+        assertEquals(Arrays.asList("0", "2"), ids(queue));
+    }
+
+    @Test
+    public void findAndReplaceWhileWrapped() {
+        fillWrapped();
+        Request found = queue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.requestId.equals("7");
+            }
+        });
+        assertEquals("7", found.requestId);
+        Request replacement = request(70);
+        assertTrue(queue.replace(found, replacement));
+        assertFalse(queue.replace(found, replacement));
+        List<String> expected = range(0, 10);
+        expected.set(7, "70");
+        assertEquals(expected, ids(queue));
+        assertNull(queue.find(new RequestQueue.Condition() {
+            @Override
+            public boolean accept(Request request) {
+                return request.requestId.equals("7");
+            }
+        }));
+    }
+
+    @Test
+    public void clearWhileWrapped() {
+        fillWrapped();
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        Request request = request(1);
+        queue.add(request);
+        assertSame(request, queue.peek());
+    }
+
+    @Test
+    public void iteratorEnd() {
+        queue.add(request(0));
+        Iterator<Request> it = queue.iterator();
+        it.next();
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail();
+        } catch (NoSuchElementException e) {
+            //期望的异常
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RssiSmootherTest {
+    private static final int CAPACITY = 64;//同RssiSmoother的初始容量
+    private final RssiSmoother smoother = new RssiSmoother();
+    private final RssiFilter filter = RssiFilter.newEwma(0.5f);
+
+    //同RssiSmoother的哈希
+    private static int slot(String addr) {
+        int h = addr.hashCode();
+        return (h ^ (h >>> 16)) & (CAPACITY - 1);
+    }
+
+    private static String addr(int i) {
+        return String.format("00:00:00:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    //找出初始位置为slot的count个地址
+    private static List<String> addrsInSlot(int slot, int count) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; list.size() < count; i++) {
+            if (slot(addr(i)) == slot) {
+                list.add(addr(i));
+            }
+        }
+        return list;
+    }
+
+    private void add(String addr) {
+        assertEquals(-100f, smoother.update(addr, -100, filter), 0);
+    }
+
+    //已有平滑状态时返回true，不改变是否存在
+    private boolean contains(String addr) {
+        float result = smoother.update(addr, 0, filter);
+        if (result == 0) {
+            smoother.remove(addr);
+            return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void smooth() {
+        assertEquals(-60f, smoother.update("A", -60, filter), 0);
+        assertEquals(-50f, smoother.update("A", -40, filter), 0);
+        assertEquals(-55f, smoother.update("A", -60, filter), 0);
+        RssiFilter kalman = RssiFilter.newKalman(0.01f, 4);
+        assertEquals(-70f, smoother.update("B", -70, kalman), 0);
+        float next = smoother.update("B", -60, kalman);
+        assertTrue(next > -70 && next < -60);
+    }
+
+    @Test
+    public void removeShiftsCollidingKeys() {
+        List<String> addrs = addrsInSlot(10, 3);
+        for (String a : addrs) {
+            add(a);
+        }
+        //删除探测序列的第一个，后面两个前移后仍能找到
+        smoother.remove(addrs.get(0));
+        assertFalse(contains(addrs.get(0)));
+        assertTrue(contains(addrs.get(1)));
+        assertTrue(contains(addrs.get(2)));
+        //删除中间的
+        add(addrs.get(0));
+        smoother.remove(addrs.get(2));
+        assertTrue(contains(addrs.get(1)));
+        assertTrue(contains(addrs.get(0)));
+        assertFalse(contains(addrs.get(2)));
+    }
+
+    @Test
+    public void removeKeepsKeysAtHome() {
+        //a、b初始位置相同，c的初始位置正好是b被挤到的位置
+        List<String> same = addrsInSlot(20, 2);
+        String c = addrsInSlot(21, 1).get(0);
+        add(same.get(0));
+        add(same.get(1));
+        add(c);
+        smoother.remove(same.get(0));
+        assertTrue(contains(same.get(1)));
+        assertTrue(contains(c));
+        assertFalse(contains(same.get(0)));
+    }
+
+    @Test
+    public void removeAcrossWraparound() {
+        //初始位置在末尾的探测序列绕回到开头
+        List<String> last = addrsInSlot(CAPACITY - 1, 3);
+        String first = addrsInSlot(0, 1).get(0);
+        add(last.get(0));//63
+        add(last.get(1));//0
+        add(first);//1
+        add(last.get(2));//2
+        smoother.remove(last.get(0));
+        assertFalse(contains(last.get(0)));
+        assertTrue(contains(last.get(1)));
+        assertTrue(contains(first));
+        assertTrue(contains(last.get(2)));
+        smoother.remove(last.get(1));
+        assertTrue(contains(first));
+        assertTrue(contains(last.get(2)));
+    }
+
+    @Test
+    public void removeMissing() {
+        add("A");
+        smoother.remove("B");
+        assertTrue(contains("A"));
+        smoother.remove("A");
+        smoother.remove("A");
+        assertFalse(contains("A"));
+    }
+
+    @Test
+    public void clear() {
+        for (int i = 0; i < 100; i++) {
+            add(addr(i));
+        }
+        smoother.clear();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(contains(addr(i)));
+        }
+    }
+
+    @Test
+    public void randomAgainstSet() {
+        Random random = new Random(7);
+        Set<String> expected = new HashSet<>();
+        //地址数超过初始容量，期间会扩容
+        for (int n = 0; n < 20000; n++) {
+            String a = addr(random.nextInt(300));
+            if (random.nextInt(3) == 0) {
+                smoother.remove(a);
+                expected.remove(a);
+            } else {
+                smoother.update(a, -100, filter);
+                expected.add(a);
+            }
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(expected.contains(addr(i)), contains(addr(i)));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package cn.zfs.blelib.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanRecorderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Record {
+        final long timestamp;
+        final String addr;
+        final int rssi;
+        final byte[] scanRecord;
+
+        Record(long timestamp, String addr, int rssi, byte[] scanRecord) {
+            this.timestamp = timestamp;
+            this.addr = addr;
+            this.rssi = rssi;
+            this.scanRecord = scanRecord;
+        }
+    }
+
+    private static List<Record> replay(File file) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        int count = new ScanReplayer(file).replay(0, new ScanReplayer.Callback() {
+            @Override
+            public void onScanResult(long timestamp, String addr, int rssi, byte[] scanRecord) {
+                records.add(new Record(timestamp, addr, rssi, scanRecord));
+            }
+        });
+        assertEquals(records.size(), count);
+        return records;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = folder.newFile();
+        ScanRecorder recorder = new ScanRecorder(file);
+        recorder.record("00:11:22:AA:BB:CC", -60, new byte[]{0x02, 0x01, 0x06});
+        recorder.record("ff:ee:dd:cc:bb:0a", -100, null);
+        recorder.record("00:11:22:AA:BB:CC", 0, new byte[0]);
+        recorder.close();
+        List<Record> records = replay(file);
+        assertEquals(3, records.size());
+        assertEquals("00:11:22:AA:BB:CC", records.get(0).addr);
+        assertEquals(-60, records.get(0).rssi);
+        assertArrayEquals(new byte[]{0x02, 0x01, 0x06}, records.get(0).scanRecord);
+        //地址统一为大写
+        assertEquals("FF:EE:DD:CC:BB:0A", records.get(1).addr);
+        assertEquals(-100, records.get(1).rssi);
+        assertNull(records.get(1).scanRecord);
+        assertEquals(0, records.get(2).scanRecord.length);
+        assertTrue(records.get(1).timestamp >= records.get(0).timestamp);
+    }
+
+    @Test
+    public void roundTripAcrossBuffers() throws IOException {
+        //超过录制和回放缓冲区大小，记录跨越缓冲区边界
+        File file = folder.newFile();
+        ScanRecorder recorder = new ScanRecorder(file);
+        int total = 5000;
+        for (int i = 0; i < total; i++) {
+            byte[] scanRecord = new byte[i % 62];
+            for (int j = 0; j < scanRecord.length; j++) {
+                scanRecord[j] = (byte) (i + j);
+            }
+            recorder.record(String.format("00:00:00:00:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF), -(i % 128), scanRecord);
+        }
+        recorder.close();
+        List<Record> records = replay(file);
+        assertEquals(total, records.size());
+        for (int i = 0; i < total; i++) {
+            Record record = records.get(i);
+            assertEquals(String.format("00:00:00:00:%02X:%02X", (i >> 8) & 0xFF, i & 0xFF), record.addr);
+            assertEquals(-(i % 128), record.rssi);
+            assertEquals(i % 62, record.scanRecord.length);
+            for (int j = 0; j < record.scanRecord.length; j++) {
+                assertEquals((byte) (i + j), record.scanRecord[j]);
+            }
+        }
+    }
+
+    @Test
+    public void appendToExistingFile() throws IOException {
+        File file = folder.newFile();
+        ScanRecorder recorder = new ScanRecorder(file);
+        recorder.record("00:11:22:AA:BB:CC", -60, new byte[]{1});
+        recorder.close();
+        recorder = new ScanRecorder(file);
+        recorder.record("00:11:22:AA:BB:CD", -61, new byte[]{2});
+        recorder.close();
+        List<Record> records = replay(file);
+        assertEquals(2, records.size());
+        assertEquals("00:11:22:AA:BB:CD", records.get(1).addr);
+    }
+
+    @Test
+    public void ignoreTruncatedRecord() throws IOException {
+        File file = folder.newFile();
+        ScanRecorder recorder = new ScanRecorder(file);
+        recorder.record("00:11:22:AA:BB:CC", -60, new byte[]{1, 2, 3});
+        recorder.record("00:11:22:AA:BB:CD", -61, new byte[]{4, 5, 6});
+        recorder.close();
+        //模拟录制中断，最后一条记录不完整
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+        List<Record> records = replay(file);
+        assertEquals(1, records.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, records.get(0).scanRecord);
+    }
+
+    @Test
+    public void recordAfterClose() throws IOException {
+        File file = folder.newFile();
+        ScanRecorder recorder = new ScanRecorder(file);
+        recorder.close();
+        recorder.record("00:11:22:AA:BB:CC", -60, new byte[]{1});
+        recorder.flush();
+        assertEquals(0, replay(file).size());
+    }
+
+    @Test
+    public void rejectOtherFile() throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        try {
+            replay(file);
+            fail();
+        } catch (IOException e) {
+            //期望的异常
+        }
+    }
+}